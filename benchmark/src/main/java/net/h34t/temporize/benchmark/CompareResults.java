@@ -0,0 +1,178 @@
+package net.h34t.temporize.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files in CSV format, e.g. the results of two commits.
+ * <p>
+ * Every benchmark of the new results is printed with the change of its score. Changes larger than the threshold and
+ * the combined score errors are marked as improvements (+) or regressions (!); higher is better for throughput
+ * (ops per time unit), lower is better for everything else, like latency or allocations. The exit code is 1 if
+ * there are regressions.
+ */
+public class CompareResults {
+
+    private static final String PACKAGE = CompareResults.class.getPackage().getName() + ".";
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp target/benchmarks.jar " + CompareResults.class.getName() + " base.csv new.csv [threshold]");
+            System.out.println("       Compares two JMH result files written with -rf csv -rff file.csv.");
+            System.out.println("       The threshold is the relative change that is reported, default 0.05.");
+            System.exit(2);
+            return;
+        }
+
+        Map<String, Result> base = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+
+        int regressions = 0;
+
+        System.out.printf("%-64s %14s %14s %9s  %s%n", "Benchmark", "Base", "New", "Change", "Unit");
+
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result before = base.get(entry.getKey());
+
+            if (before == null) {
+                System.out.printf("%-64s %14s %14.3f %9s  %s%n", entry.getKey(), "-", now.score, "new", now.unit);
+                continue;
+            }
+
+            double change = before.score != 0 ? (now.score - before.score) / before.score : 0;
+            boolean significant = Math.abs(change) > threshold
+                    && Math.abs(now.score - before.score) > before.error + now.error;
+            boolean better = now.isHigherBetter() ? change > 0 : change < 0;
+
+            String marker = !significant ? "" : better ? " +" : " !";
+
+            if (significant && !better)
+                regressions++;
+
+            System.out.printf("%-64s %14.3f %14.3f %+8.1f%%  %s%s%n",
+                    entry.getKey(), before.score, now.score, change * 100, now.unit, marker);
+        }
+
+        for (String key : base.keySet())
+            if (!current.containsKey(key))
+                System.out.printf("%-64s %14.3f %14s %9s  %s%n", key, base.get(key).score, "-", "removed", base.get(key).unit);
+
+        System.out.println();
+        System.out.println(regressions + " regressions");
+
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * @param file the CSV file
+     * @return the results by benchmark, parameters and mode
+     * @throws IOException on read errors
+     */
+    static Map<String, Result> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+
+        if (lines.isEmpty())
+            throw new IllegalArgumentException(file + " is empty");
+
+        List<String> header = parseLine(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+
+        if (benchmark < 0 || mode < 0 || score < 0 || error < 0 || unit < 0)
+            throw new IllegalArgumentException(file + " is not a JMH result file in CSV format");
+
+        Map<String, Result> results = new LinkedHashMap<>();
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty())
+                continue;
+
+            List<String> fields = parseLine(line);
+
+            String name = fields.get(benchmark);
+            StringBuilder key = new StringBuilder(name.startsWith(PACKAGE) ? name.substring(PACKAGE.length()) : name);
+            for (int i = 0; i < header.size(); i++)
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty())
+                    key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(fields.get(i));
+            key.append(" (").append(fields.get(mode)).append(')');
+
+            results.put(key.toString(), new Result(
+                    parseNumber(fields.get(score)),
+                    parseNumber(fields.get(error)),
+                    fields.get(unit)));
+        }
+
+        return results;
+    }
+
+    /**
+     * @param line a line of comma separated values, optionally quoted
+     * @return the values
+     */
+    static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+
+            } else if (c == '"') {
+                quoted = true;
+
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static double parseNumber(String value) {
+        // JMH formats numbers with the default locale
+        return value.isEmpty() || value.equals("NaN") ? 0 : Double.parseDouble(value.replace(',', '.'));
+    }
+
+    static class Result {
+
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(double score, double error, String unit) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        boolean isHigherBetter() {
+            return unit.startsWith("ops/");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package net.h34t.temporize.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates synthetic templates of a given size and shape to measure how the compile pipeline scales.
+ * <p>
+ * The size is given in nodes, i.e. literals, values, conditionals, blocks and includes. The templates are
+ * deterministic for a given seed.
+ */
+public class CorpusGenerator {
+
+    /**
+     * The shape of the generated templates.
+     */
+    public enum Shape {
+        /**
+         * Alternating literals and values.
+         */
+        FLAT,
+        /**
+         * Conditionals nested {@link #NESTING_DEPTH} levels deep.
+         */
+        NESTED,
+        /**
+         * Many small {for} blocks, each compiled to its own class.
+         */
+        BLOCKS,
+        /**
+         * Many includes of the same template.
+         */
+        INCLUDES,
+        /**
+         * A random mix of all of the above.
+         */
+        MIXED
+    }
+
+    /**
+     * The depth of nested conditionals.
+     */
+    public static final int NESTING_DEPTH = 64;
+
+    /**
+     * The template included by generated templates, it must be part of the corpus.
+     */
+    public static final String PARTIAL = "corpus.Partial";
+
+    private static final int VARIABLES = 100;
+
+    private final Random random;
+    private final StringBuilder sb = new StringBuilder();
+
+    private int nodes;
+    private int blocks;
+    private int includes;
+
+    private CorpusGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param shape the shape of the template
+     * @param nodes the number of nodes to generate, the result may have a few more
+     * @param seed  the seed of the random choices
+     * @return the template source
+     */
+    public static String generate(Shape shape, int nodes, long seed) {
+        CorpusGenerator generator = new CorpusGenerator(seed);
+
+        while (generator.nodes < nodes)
+            generator.unit(shape);
+
+        return generator.sb.toString();
+    }
+
+    private void unit(Shape shape) {
+        switch (shape) {
+            case FLAT:
+                literal();
+                variable();
+                break;
+
+            case NESTED:
+                nested();
+                break;
+
+            case BLOCKS:
+                block();
+                break;
+
+            case INCLUDES:
+                literal();
+                include();
+                break;
+
+            case MIXED:
+                unit(Shape.values()[random.nextInt(Shape.MIXED.ordinal())]);
+                break;
+        }
+    }
+
+    private void literal() {
+        sb.append("<p class=\"c").append(random.nextInt(10)).append("\">Lorem ipsum dolor sit amet ")
+                .append(nodes).append("</p>\n");
+        nodes++;
+    }
+
+    private void variable() {
+        sb.append("{$v").append(random.nextInt(VARIABLES));
+
+        if (random.nextInt(4) == 0)
+            sb.append("|html");
+
+        sb.append('}');
+        nodes++;
+    }
+
+    private void nested() {
+        for (int depth = 0; depth < NESTING_DEPTH; depth++) {
+            sb.append("{if $c").append(random.nextInt(VARIABLES)).append('}');
+            nodes++;
+            literal();
+            variable();
+        }
+
+        for (int depth = 0; depth < NESTING_DEPTH; depth++) {
+            if (random.nextInt(4) == 0) {
+                sb.append("{else}");
+                literal();
+            }
+
+            sb.append("{/if}");
+        }
+    }
+
+    private void block() {
+        sb.append("{for $b").append(blocks++).append('}');
+        nodes++;
+        literal();
+        variable();
+        sb.append("{/for}");
+    }
+
+    private void include() {
+        sb.append("{include ").append(PARTIAL).append(" as $i").append(includes++).append('}');
+        nodes++;
+    }
+
+    /**
+     * Writes a corpus of templates of every shape and the given sizes, which can be compiled with temporize.
+     *
+     * @param args the output directory followed by the sizes in nodes
+     * @throws IOException on write errors
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp target/benchmarks.jar " + CorpusGenerator.class.getName() + " output/ nodes...");
+            System.out.println("       Writes templates of every shape with the given numbers of nodes.");
+            System.exit(2);
+            return;
+        }
+
+        Path corpus = Paths.get(args[0], "corpus");
+        Files.createDirectories(corpus);
+
+        Files.write(corpus.resolve("Partial.temporize.html"),
+                "<aside>{$text}</aside>\n".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 1; i < args.length; i++) {
+            int nodes = Integer.parseInt(args[i]);
+
+            for (Shape shape : Shape.values()) {
+                Path file = corpus.resolve(shape.name().charAt(0) + shape.name().substring(1).toLowerCase()
+                        + nodes + ".temporize.html");
+
+                Files.write(file, generate(shape, nodes, nodes).getBytes(StandardCharsets.UTF_8));
+                System.out.println("Wrote " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.h34t.temporize.benchmark;
+
+/**
+ * The modifiers used by the benchmark templates.
+ */
+public class Modifiers {
+
+    public static String html(String in) {
+        StringBuilder sb = null;
+
+        for (int i = 0; i < in.length(); i++) {
+            String replacement;
+            switch (in.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = null;
+            }
+
+            if (replacement != null) {
+                if (sb == null)
+                    sb = new StringBuilder(in.length() + 16).append(in, 0, i);
+
+                sb.append(replacement);
+
+            } else if (sb != null) {
+                sb.append(in.charAt(i));
+            }
+        }
+
+        return sb != null ? sb.toString() : in;
+    }
+
+    public static String upper(String in) {
+        return in.toUpperCase();
+    }
+
+    public static String lower(String in) {
+        return in.toLowerCase();
+    }
+
+    public static String trim(String in) {
+        return in.trim();
+    }
+
+    public static String capitalize(String in) {
+        return in.isEmpty()
+                ? in
+                : Character.toUpperCase(in.charAt(0)) + in.substring(1);
+    }
+
+    public static String abbreviate(String in) {
+        return in.length() > 40
+                ? in.substring(0, 39) + "\u2026"
+                : in;
+    }
+}
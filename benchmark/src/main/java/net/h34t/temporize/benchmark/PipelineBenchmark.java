@@ -0,0 +1,78 @@
+package net.h34t.temporize.benchmark;
+
+import net.h34t.temporize.ASTBuilder;
+import net.h34t.temporize.CompactAST;
+import net.h34t.temporize.Compiler;
+import net.h34t.temporize.ParseResult;
+import net.h34t.temporize.Parser;
+import net.h34t.temporize.Template;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each phase of the compile pipeline, i.e. parsing, building the AST and generating the code, on templates
+ * of the {@link CorpusGenerator}, to see how they scale with the size and shape of templates.
+ * <p>
+ * The generated code grows by roughly a kilobyte per node, so templates with a million nodes need a large heap:
+ * -p nodes=1000000 -jvmArgsAppend -Xmx16g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"FLAT", "NESTED", "BLOCKS", "INCLUDES", "MIXED"})
+    public CorpusGenerator.Shape shape;
+
+    @Param({"10000", "100000"})
+    public int nodes;
+
+    private String source;
+    private ParseResult tokens;
+    private CompactAST root;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = CorpusGenerator.generate(shape, nodes, nodes);
+        tokens = Parser.FULL.parse(source);
+        root = new ASTBuilder().buildCompact(tokens);
+    }
+
+    @Benchmark
+    public ParseResult parse() throws IOException {
+        return Parser.FULL.parse(source);
+    }
+
+    @Benchmark
+    public CompactAST build() {
+        return new ASTBuilder().buildCompact(tokens);
+    }
+
+    @Benchmark
+    public CompactAST parseAndBuild() {
+        ASTBuilder.Session session = new ASTBuilder().start();
+        Parser.FULL.parse(source, session);
+        return session.finish();
+    }
+
+    @Benchmark
+    public Template compile() {
+        return new Compiler().compile("corpus", "Corpus", null, root, include -> {
+        });
+    }
+}
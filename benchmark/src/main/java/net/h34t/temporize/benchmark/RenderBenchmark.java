@@ -0,0 +1,92 @@
+package net.h34t.temporize.benchmark;
+
+import net.h34t.temporize.TemporizeTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every render path of the generated templates. Throughput and the latency distribution are measured by
+ * default, the allocation rate with the gc profiler (-prof gc).
+ * <p>
+ * The buffers of the write and append benchmarks are reused, so they only measure the template.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RenderBenchmark {
+
+    @Param({Templates.STOCKS, Templates.INCLUDES, Templates.BLOCKS, Templates.MODIFIERS})
+    public String template;
+
+    private TemporizeTemplate tpl;
+
+    private final CharArrayWriter writer = new CharArrayWriter(1 << 16);
+    private final ByteArrayOutputStream os = new ByteArrayOutputStream(1 << 16);
+    private final StringBuilder sb = new StringBuilder(1 << 16);
+
+    @Setup
+    public void setUp() {
+        tpl = Templates.create(template);
+    }
+
+    @Benchmark
+    public String toStringRender() {
+        return tpl.toString();
+    }
+
+    @Benchmark
+    public String renderExact() {
+        return TemporizeTemplate.render(tpl, true);
+    }
+
+    @Benchmark
+    public CharArrayWriter writeWriter() throws IOException {
+        writer.reset();
+        tpl.write(writer);
+        return writer;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeUtf8() throws IOException {
+        os.reset();
+        tpl.write(os);
+        return os;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeIso88591() throws IOException {
+        os.reset();
+        tpl.write(os, StandardCharsets.ISO_8859_1);
+        return os;
+    }
+
+    @Benchmark
+    public StringBuilder appendTo() {
+        sb.setLength(0);
+        tpl.appendTo(sb);
+        return sb;
+    }
+
+    @Benchmark
+    public int measure() {
+        return tpl.measure();
+    }
+}
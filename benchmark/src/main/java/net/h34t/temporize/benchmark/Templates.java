@@ -0,0 +1,125 @@
+package net.h34t.temporize.benchmark;
+
+import net.h34t.temporize.TemporizeTemplate;
+import net.h34t.temporize.benchmark.tpl.blocks.Table;
+import net.h34t.temporize.benchmark.tpl.includes.Level0;
+import net.h34t.temporize.benchmark.tpl.includes.Level1;
+import net.h34t.temporize.benchmark.tpl.includes.Level2;
+import net.h34t.temporize.benchmark.tpl.includes.Level3;
+import net.h34t.temporize.benchmark.tpl.includes.Level4;
+import net.h34t.temporize.benchmark.tpl.includes.Level5;
+import net.h34t.temporize.benchmark.tpl.includes.Level6;
+import net.h34t.temporize.benchmark.tpl.includes.Level7;
+import net.h34t.temporize.benchmark.tpl.modifiers.Chains;
+import net.h34t.temporize.benchmark.tpl.stocks.Stocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the filled benchmark templates.
+ */
+public class Templates {
+
+    /**
+     * The names of all benchmark templates.
+     */
+    public static final String STOCKS = "stocks";
+    public static final String INCLUDES = "includes";
+    public static final String BLOCKS = "blocks";
+    public static final String MODIFIERS = "modifiers";
+
+    /**
+     * @param name the name of the template
+     * @return the template, filled with its data
+     */
+    public static TemporizeTemplate create(String name) {
+        switch (name) {
+            case STOCKS:
+                return stocks();
+            case INCLUDES:
+                return includes();
+            case BLOCKS:
+                return blocks(200, 10);
+            case MODIFIERS:
+                return modifiers(100);
+            default:
+                throw new IllegalArgumentException("Unknown template " + name);
+        }
+    }
+
+    /**
+     * @return the page of the "Stock" test of the template-benchmark project
+     */
+    static Stocks stocks() {
+        List<Stocks.Items> items = new ArrayList<>();
+
+        int index = 1;
+        for (Stock stock : Stock.dummyItems()) {
+            items.add(new Stocks.Items()
+                    .setRowClass(index % 2 == 0 ? "even" : "odd")
+                    .setIndex(index++)
+                    .setSymbol(stock.symbol)
+                    .setUrl(stock.url)
+                    .setName(stock.name)
+                    .setPrice(String.valueOf(stock.price))
+                    .setChange(String.valueOf(stock.change))
+                    .setRatio(String.valueOf(stock.ratio))
+                    .setNegative(stock.change < 0));
+        }
+
+        return new Stocks().setItems(items);
+    }
+
+    /**
+     * @return a chain of eight nested includes
+     */
+    static Level0 includes() {
+        Level7 level7 = new Level7().setTitle("Level <7>").setText("the last one");
+        Level6 level6 = new Level6().setTitle("Level <6>").setText("includes level 7").setChild(level7);
+        Level5 level5 = new Level5().setTitle("Level <5>").setText("includes level 6").setChild(level6);
+        Level4 level4 = new Level4().setTitle("Level <4>").setText("includes level 5").setChild(level5);
+        Level3 level3 = new Level3().setTitle("Level <3>").setText("includes level 4").setChild(level4);
+        Level2 level2 = new Level2().setTitle("Level <2>").setText("includes level 3").setChild(level3);
+        Level1 level1 = new Level1().setTitle("Level <1>").setText("includes level 2").setChild(level2);
+        return new Level0().setTitle("Level <0>").setText("includes level 1").setChild(level1);
+    }
+
+    /**
+     * @param rows    the number of rows
+     * @param columns the number of cells per row
+     * @return a table of nested blocks
+     */
+    static Table blocks(int rows, int columns) {
+        List<Table.Rows> tableRows = new ArrayList<>();
+
+        for (int r = 0; r < rows; r++) {
+            List<Table.Rows.Cells> cells = new ArrayList<>();
+
+            for (int c = 0; c < columns; c++)
+                cells.add(new Table.Rows.Cells()
+                        .setCls(c % 2 == 0 ? "even" : "odd")
+                        .setValue((long) r * columns + c));
+
+            tableRows.add(new Table.Rows().setId(r).setCells(cells));
+        }
+
+        return new Table().setCaption("Report <" + rows + " x " + columns + ">").setRows(tableRows);
+    }
+
+    /**
+     * @param people the number of entries
+     * @return a list whose values all pass through chains of modifiers
+     */
+    static Chains modifiers(int people) {
+        List<Chains.People> entries = new ArrayList<>();
+
+        for (int i = 0; i < people; i++)
+            entries.add(new Chains.People()
+                    .setName("  PERSON number " + i + "  ")
+                    .setTitle(" Senior <Engineer> & Benchmark Author ")
+                    .setBio("  Writes templates & Measures Them, " + i + " times a day, every day of the week.  "));
+
+        return new Chains().setPeople(entries);
+    }
+}
@@ -2,100 +2,118 @@ package net.h34t.temporize;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.function.Consumer;
 
 public class ASTBuilder {
 
     public ASTBuilder() {
     }
 
+    /**
+     * @param tokens the tokens of a template
+     * @return the linked node view of the syntax tree
+     */
     public ASTNode build(List<Token> tokens) {
-        ASTNode previous = new ASTNode.NoOp(null);
-        final ASTNode root = previous;
+        return buildCompact(tokens).toNodes();
+    }
+
+    /**
+     * @param tokens the tokens of a template
+     * @return the syntax tree
+     */
+    public CompactAST buildCompact(List<Token> tokens) {
+        Session session = start();
+        tokens.forEach(session);
+        return session.finish();
+    }
+
+    /**
+     * Starts building a syntax tree from tokens as they arrive, e.g. straight from
+     * {@link Parser#parse(java.nio.file.Path, Consumer)}.
+     *
+     * @return the session consuming the tokens
+     */
+    public Session start() {
+        return new Session();
+    }
 
-        // the stack stores entry points of branching structures (i.e. blocks and conditionals)
-        Stack<ASTNode> stack = new Stack<>();
+    /**
+     * Builds a syntax tree token by token. Mismatched tokens are reported as soon as they arrive.
+     */
+    public static class Session implements Consumer<Token> {
 
-        ASTNode current;
+        private final CompactAST.Builder builder = new CompactAST.Builder();
+
+        private Session() {
+        }
+
+        @Override
+        public void accept(Token token) {
+            // the entry point of the innermost branching structure (i.e. block or conditional)
+            int open = builder.innermost();
 
-        for (Token token : tokens) {
             if (token instanceof Token.Variable) {
-                current = new ASTNode.Variable(previous, ((Token.Variable) token).variableName, Arrays.asList(((Token.Variable) token).modifiers));
-                previous.setNext(current);
+                builder.variable(((Token.Variable) token).variableName, Arrays.asList(((Token.Variable) token).modifiers));
 
             } else if (token instanceof Token.Literal) {
-                current = new ASTNode.ConstantValue(previous, token.contents);
-                previous.setNext(current);
+                builder.constant(token.contents);
 
             } else if (token instanceof Token.Include) {
-                current = new ASTNode.Include(previous, ((Token.Include) token).includeName, ((Token.Include) token).instanceName);
-                previous.setNext(current);
+                builder.include(((Token.Include) token).includeName, ((Token.Include) token).instanceName);
 
             } else if (token instanceof Token.Block) {
-                // create a block and a NOP that can be used as a new current
-                ASTNode.Block block = new ASTNode.Block(previous, ((Token.Block) token).blockName);
-                previous.setNext(block);
-                ASTNode branch = new ASTNode.NoOp(block);
-                block.setBranch(branch);
-                current = branch;
-
-                // add the block to the stack
-                stack.push(block);
+                builder.openBlock(((Token.Block) token).blockName);
 
             } else if (token instanceof Token.BlockEnd) {
                 // and end block doesn't generate its own AST node
 
-                if (stack.empty() || !(stack.peek() instanceof ASTNode.Block))
+                if (open < 0 || builder.kind(open) != CompactAST.BLOCK)
                     throw new UnmatchedBlockException("Block End without corresponding Block Opener at " + token.line + ":" + token.offs);
 
-                current = stack.pop();
+                builder.close();
 
             } else if (token instanceof Token.Conditional) {
-                ASTNode.Conditional conditional = new ASTNode.Conditional(previous, ((Token.Conditional) token).conditionalVariable);
-                previous.setNext(conditional);
-
-                ASTNode consequence = new ASTNode.NoOp(conditional);
-                conditional.consequent = consequence;
-                current = consequence;
-
-                stack.push(conditional);
+                builder.openConditional(((Token.Conditional) token).conditionalVariable);
 
             } else if (token instanceof Token.ConditionalElse) {
-                if (stack.empty() || !(stack.peek() instanceof ASTNode.Conditional))
+                if (open < 0 || builder.kind(open) != CompactAST.CONDITIONAL)
                     throw new MismatchedBranchException("Else without corresponding Conditional-If at " + token.line + ":" + token.offs);
 
-                current = stack.peek();
-
-                if (((ASTNode.Conditional) current).alternative != null) {
+                if (builder.hasAlternative(open)) {
                     throw new MismatchedBranchException("Double Else branching at " + token.line + ":" + token.offs);
                 }
 
-                ASTNode.NoOp elseNode = new ASTNode.NoOp(current);
-                ((ASTNode.Conditional) current).alternative = elseNode;
-                current = elseNode;
+                builder.alternative();
 
             } else if (token instanceof Token.ConditionalEnd) {
-                if (stack.empty() || !(stack.peek() instanceof ASTNode.Conditional))
+                if (open < 0 || builder.kind(open) != CompactAST.CONDITIONAL)
                     throw new MismatchedBranchException("Conditional-End without corresponding Conditional-If at " + token.line + ":" + token.offs);
 
-                current = stack.pop();
+                builder.close();
 
             } else {
                 throw new RuntimeException("Unhandled token type: " + token.getClass().getName());
             }
-
-            previous = current;
         }
 
-        if (!stack.empty() && stack.peek() instanceof ASTNode.Block) {
-            throw new UnmatchedBlockException("Leftover unclosed block.");
-        }
+        /**
+         * @return the syntax tree of all tokens
+         * @throws UnmatchedBlockException    if a block is still open
+         * @throws MismatchedBranchException if a conditional is still open
+         */
+        public CompactAST finish() {
+            int open = builder.innermost();
 
-        if (!stack.empty() && stack.peek() instanceof ASTNode.Conditional) {
-            throw new MismatchedBranchException("Leftover unclosed conditional");
-        }
+            if (open >= 0 && builder.kind(open) == CompactAST.BLOCK) {
+                throw new UnmatchedBlockException("Leftover unclosed block.");
+            }
+
+            if (open >= 0 && builder.kind(open) == CompactAST.CONDITIONAL) {
+                throw new MismatchedBranchException("Leftover unclosed conditional");
+            }
 
-        return root;
+            return builder.build();
+        }
     }
 
     public static class MismatchedBranchException extends RuntimeException {
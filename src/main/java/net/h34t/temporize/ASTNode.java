@@ -1,9 +1,14 @@
 package net.h34t.temporize;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * The linked node view of a template's syntax tree, see {@link CompactAST#toNodes()}.
+ */
 public abstract class ASTNode {
 
     private final ASTNode prev;
@@ -33,8 +38,77 @@ public abstract class ASTNode {
         return prev;
     }
 
+    /**
+     * Prints this node and all following nodes, including the branches of conditionals and blocks.
+     *
+     * @param indentation level of indentation
+     * @return a readable representation of the tree
+     */
     public abstract String print(int indentation);
 
+    /**
+     * Prints the tree starting at this node without recursing, so deep trees don't overflow the stack. Nodes
+     * declared outside this class print themselves and their following nodes with {@link #print(int)}.
+     *
+     * @param indentation level of indentation
+     * @return a readable representation of the tree
+     */
+    final String printTree(int indentation) {
+        StringBuilder output = new StringBuilder();
+
+        // pending nodes and their indentation, or plain lines
+        Deque<Object[]> stack = new ArrayDeque<>();
+        stack.push(new Object[]{this, indentation});
+
+        while (!stack.isEmpty()) {
+            Object[] item = stack.pop();
+
+            if (item[0] instanceof String) {
+                output.append((String) item[0]);
+                continue;
+            }
+
+            ASTNode node = (ASTNode) item[0];
+            int indent = (Integer) item[1];
+
+            String line = node.printNode(indent);
+
+            if (line == null) {
+                output.append(node.print(indent));
+                continue;
+            }
+
+            output.append(line);
+
+            if (node.getNext() != null)
+                stack.push(new Object[]{node.getNext(), indent});
+
+            if (node instanceof Conditional) {
+                Conditional conditional = (Conditional) node;
+
+                if (conditional.alternative != null) {
+                    stack.push(new Object[]{conditional.alternative, indent + 1});
+                    stack.push(new Object[]{ident(indent) + "else\n"});
+                }
+
+                stack.push(new Object[]{conditional.consequent, indent + 1});
+
+            } else if (node instanceof Block) {
+                stack.push(new Object[]{((Block) node).branch, indent + 1});
+            }
+        }
+
+        return output.toString();
+    }
+
+    /**
+     * @param indentation level of indentation
+     * @return a readable representation of this node alone, or null if the node prints its following nodes itself
+     */
+    String printNode(int indentation) {
+        return null;
+    }
+
     public boolean hasNext() {
         return this.next != null;
     }
@@ -50,7 +124,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            return (getNext() != null) ? getNext().print(indentation) : "";
+            return printTree(indentation);
+        }
+
+        @Override
+        String printNode(int indentation) {
+            return "";
         }
     }
 
@@ -67,19 +146,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            StringBuilder output = new StringBuilder();
-            output.append(ident(indentation)).append("if ").append(name).append("\n");
-            output.append(consequent.print(indentation + 1));
-
-            if (alternative != null) {
-                output.append(ident(indentation)).append("else\n");
-                output.append(alternative.print(indentation + 1));
-            }
-
-            if (getNext() != null)
-                output.append(getNext().print(indentation));
+            return printTree(indentation);
+        }
 
-            return output.toString();
+        @Override
+        String printNode(int indentation) {
+            return ident(indentation) + "if " + name + "\n";
         }
     }
 
@@ -96,12 +168,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            String output = ident(indentation) + "$" + name + ":" + modifiers.stream().collect(Collectors.joining("|")) + "\n";
-
-            if (getNext() != null)
-                output += getNext().print(indentation);
+            return printTree(indentation);
+        }
 
-            return output;
+        @Override
+        String printNode(int indentation) {
+            return ident(indentation) + "$" + name + ":" + modifiers.stream().collect(Collectors.joining("|")) + "\n";
         }
     }
 
@@ -124,13 +196,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            StringBuilder output = new StringBuilder();
-            output.append(ident(indentation)).append("for ").append(blockName).append(":\n");
-            output.append(branch.print(indentation + 1));
-            if (getNext() != null)
-                output.append(getNext().print(indentation));
+            return printTree(indentation);
+        }
 
-            return output.toString();
+        @Override
+        String printNode(int indentation) {
+            return ident(indentation) + "for " + blockName + ":\n";
         }
     }
 
@@ -147,12 +218,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            String output = ident(indentation) + "include(" + classname + " as " + instance + ")\n";
-
-            if (getNext() != null)
-                output += getNext().print(indentation);
+            return printTree(indentation);
+        }
 
-            return output;
+        @Override
+        String printNode(int indentation) {
+            return ident(indentation) + "include(" + classname + " as " + instance + ")\n";
         }
     }
 
@@ -167,12 +238,12 @@ public abstract class ASTNode {
 
         @Override
         public String print(int indentation) {
-            String output = ident(indentation) + "\"" + value + "\"\n";
-
-            if (getNext() != null)
-                output += getNext().print(indentation);
+            return printTree(indentation);
+        }
 
-            return output;
+        @Override
+        String printNode(int indentation) {
+            return ident(indentation) + "\"" + value + "\"\n";
         }
     }
 }
@@ -0,0 +1,21 @@
+package net.h34t.temporize;
+
+/**
+ * A transformation of the syntax tree between the {@link ASTBuilder} and the {@link Compiler}. Passes must keep the
+ * rendered output and the values a template declares, i.e. the API of the generated class.
+ * <p>
+ * Passes are shared between threads and must not keep state between runs.
+ */
+public interface ASTPass {
+
+    /**
+     * @return the name of the pass, used in reports
+     */
+    String getName();
+
+    /**
+     * @param ast the tree
+     * @return the transformed tree, or the same one if there's nothing to do
+     */
+    CompactAST apply(CompactAST ast);
+}
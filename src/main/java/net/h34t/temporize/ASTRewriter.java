@@ -0,0 +1,163 @@
+package net.h34t.temporize;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Copies a tree node by node into a new one, in a single pass without recursion. Subclasses decide for every node
+ * whether it is kept, replaced or dropped.
+ */
+abstract class ASTRewriter {
+
+    final CompactAST ast;
+    final CompactAST.Builder builder = new CompactAST.Builder();
+
+    /**
+     * The blocks and conditionals that are being copied, the innermost first.
+     */
+    final Deque<Frame> frames = new ArrayDeque<>();
+
+    ASTRewriter(CompactAST ast) {
+        this.ast = ast;
+    }
+
+    /**
+     * @return the new tree
+     */
+    CompactAST rewrite() {
+        int node = 0;
+
+        while (true) {
+            // switch to alternatives and close the frames that end here
+            while (!frames.isEmpty()) {
+                Frame frame = frames.peek();
+
+                if (frame.opened && !frame.alternative && ast.kind(frame.node) == CompactAST.CONDITIONAL
+                        && ast.alternative(frame.node) == node) {
+                    builder.alternative();
+                    frame.alternative = true;
+
+                } else if (frame.end == node) {
+                    frames.pop();
+                    if (frame.opened)
+                        builder.close();
+                    else if (!frame.alternative)
+                        declare(frame.node, ast.consequentEnd(frame.node), ast.end(frame.node));
+
+                    node = frame.resume;
+
+                } else {
+                    break;
+                }
+            }
+
+            if (node >= ast.size())
+                return builder.build();
+
+            node = visit(node);
+        }
+    }
+
+    /**
+     * Copies, replaces or drops a node.
+     *
+     * @param node the node
+     * @return the node to continue with
+     */
+    abstract int visit(int node);
+
+    /**
+     * Copies a node. The children of blocks and conditionals are visited next.
+     *
+     * @param node the node
+     * @return the node to continue with
+     */
+    int keep(int node) {
+        byte kind = ast.kind(node);
+
+        if (kind == CompactAST.BLOCK || kind == CompactAST.CONDITIONAL) {
+            builder.open(ast, node);
+            frames.push(new Frame(node, true, false, ast.end(node), ast.end(node)));
+            return node + 1;
+        }
+
+        builder.copy(ast, node, false);
+        return ast.end(node);
+    }
+
+    /**
+     * Replaces a conditional by one of its branches, whose nodes are visited next. The values declared in the other
+     * branch are kept in a silent copy of the conditional, in their place.
+     *
+     * @param node        the conditional
+     * @param alternative true for the alternative, false for the consequent
+     * @return the node to continue with
+     */
+    int inline(int node, boolean alternative) {
+        if (alternative) {
+            declare(node, node + 1, ast.consequentEnd(node));
+
+            if (ast.alternative(node) < 0)
+                return ast.end(node);
+        }
+
+        int from = alternative ? ast.alternative(node) : node + 1;
+        int to = alternative ? ast.end(node) : ast.consequentEnd(node);
+
+        frames.push(new Frame(node, false, alternative, to, ast.end(node)));
+        return from;
+    }
+
+    /**
+     * Appends a silent copy of a conditional with the declarations of a range of its nodes.
+     */
+    private void declare(int node, int from, int to) {
+        if (from >= to)
+            return;
+
+        builder.open(ast, node);
+        builder.silence(builder.innermost());
+        builder.copy(ast, from, to, true);
+        builder.close();
+    }
+
+    /**
+     * @return the end of the branch or body that is being copied
+     */
+    int branchEnd() {
+        if (frames.isEmpty())
+            return ast.size();
+
+        Frame frame = frames.peek();
+
+        return frame.opened && !frame.alternative && ast.kind(frame.node) == CompactAST.CONDITIONAL
+                ? ast.consequentEnd(frame.node)
+                : frame.end;
+    }
+
+    /**
+     * A block or conditional that is being copied, or the branch of a conditional that is being inlined.
+     */
+    static class Frame {
+
+        final int node;
+
+        // false if only a branch is inlined
+        final boolean opened;
+
+        // true once the alternative of a conditional is reached
+        boolean alternative;
+
+        // where the frame ends, and where to continue after that
+        final int end;
+        final int resume;
+
+        Frame(int node, boolean opened, boolean alternative, int end, int resume) {
+            this.node = node;
+            this.opened = opened;
+            this.alternative = alternative;
+            this.end = end;
+            this.resume = resume;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.h34t.temporize;
+
+/**
+ * Receives the nodes of a template in document order, see {@link CompactAST#walk(int, int, ASTVisitor)}.
+ * <p>
+ * The bodies of blocks belong to a class of their own and aren't visited.
+ */
+public interface ASTVisitor {
+
+    default void constant(int node) {
+    }
+
+    default void variable(int node) {
+    }
+
+    default void block(int node) {
+    }
+
+    default void include(int node) {
+    }
+
+    /**
+     * Called before the consequent of a conditional.
+     *
+     * @param node the index of the conditional
+     */
+    default void enterConditional(int node) {
+    }
+
+    /**
+     * Called between the consequent and the alternative of a conditional, if it has one.
+     *
+     * @param node the index of the conditional
+     */
+    default void enterAlternative(int node) {
+    }
+
+    /**
+     * Called after the last branch of a conditional.
+     *
+     * @param node the index of the conditional
+     */
+    default void exitConditional(int node) {
+    }
+}
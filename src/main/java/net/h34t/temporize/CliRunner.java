@@ -1,25 +1,66 @@
 package net.h34t.temporize;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class CliRunner {
     public static void main(String... args) {
-        boolean verbose = false;
+        List<String> options = Arrays.stream(args)
+                .filter(arg -> arg.startsWith("--"))
+                .collect(Collectors.toList());
+        List<String> arguments = Arrays.stream(args)
+                .filter(arg -> !arg.startsWith("--"))
+                .collect(Collectors.toList());
+
+        boolean verbose = options.contains("--verbose");
 
         try {
-            if (args.length < 2) {
-                System.out.println("Usage: java -jar temporize.jar tpl/ output/ path/to/Modifiers.java");
+            if (arguments.size() < 2) {
+                System.out.println("Usage: java -jar temporize.jar tpl/ output/ path/to/Modifiers.java [options]");
                 System.out.println("       Compiles all templates with a file name according to the pattern");
                 System.out.println("       [name].temporize.[ending] into precompiled templates and saves");
                 System.out.println("       the java source files to output.");
+                System.out.println();
+                System.out.println("       --verbose      print stack traces on errors");
+                System.out.println("       --incremental  only compile templates that changed since the last run");
+                System.out.println("       --threads=n    compile on n threads, 0 uses all available processors");
+                System.out.println("       --method-size-limit=n");
+                System.out.println("                      split render methods estimated above n bytes of bytecode,");
+                System.out.println("                      0 disables splitting (default " + Compiler.DEFAULT_METHOD_SIZE_LIMIT + ")");
+                System.out.println("       --literal-blob-threshold=n");
+                System.out.println("                      store literals longer than n chars in a .literals resource");
+                System.out.println("                      next to the class, 0 disables it (default " + Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD + ")");
+                System.out.println("       --no-optimize  compile templates as they are, without merging constants");
+                System.out.println("                      and removing sections that render nothing");
+                System.out.println("       --compact-whitespace=suffix,...");
+                System.out.println("                      collapse whitespace between tags in templates whose file");
+                System.out.println("                      name ends with one of the suffixes, e.g. .temporize.html");
+                System.out.println("       --shared-literals");
+                System.out.println("                      store literals used by several templates once, in a");
+                System.out.println("                      generated TemporizeLiterals class");
+                System.out.println("       --staging      write compiled templates to a staging directory right away");
+                System.out.println("                      and move them into place after all templates compiled");
 
             } else {
-                String inDir = args[0];
-                String outDir = args[1];
-                String modifier = args.length > 2 ? args[2] : null;
-                verbose = Arrays.asList(args).contains("--verbose");
+                String inDir = arguments.get(0);
+                String outDir = arguments.get(1);
+                String modifier = arguments.size() > 2 ? arguments.get(2) : null;
 
-                new Temporize().exec(inDir, outDir, modifier);
+                new Temporize()
+                        .setIncremental(options.contains("--incremental"))
+                        .setThreads(Integer.parseInt(getOption(options, "--threads", "1")))
+                        .setMethodSizeLimit(Integer.parseInt(getOption(options, "--method-size-limit",
+                                String.valueOf(Compiler.DEFAULT_METHOD_SIZE_LIMIT))))
+                        .setLiteralBlobThreshold(Integer.parseInt(getOption(options, "--literal-blob-threshold",
+                                String.valueOf(Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD))))
+                        .setOptimize(!options.contains("--no-optimize"))
+                        .setCompactWhitespace(Arrays.stream(getOption(options, "--compact-whitespace", "").split(","))
+                                .filter(suffix -> !suffix.isEmpty())
+                                .collect(Collectors.toList()))
+                        .setSharedLiterals(options.contains("--shared-literals"))
+                        .setStaging(options.contains("--staging"))
+                        .exec(inDir, outDir, modifier);
             }
 
         } catch (Exception e) {
@@ -31,4 +72,18 @@ public class CliRunner {
             System.exit(1);
         }
     }
+
+    /**
+     * @param options      the options given on the command line
+     * @param name         the name of the option, e.g. --threads
+     * @param defaultValue the value if the option isn't given
+     * @return the value of an option given in the form --name=value
+     */
+    static String getOption(List<String> options, String name, String defaultValue) {
+        return options.stream()
+                .filter(option -> option.startsWith(name + "="))
+                .map(option -> option.substring(name.length() + 1))
+                .reduce((first, second) -> second)
+                .orElse(defaultValue);
+    }
 }
@@ -0,0 +1,673 @@
+package net.h34t.temporize;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A template's syntax tree, stored in primitive arrays.
+ * <p>
+ * Nodes are numbered in document order. A node's children come right after it, and {@link #end(int)} is the index
+ * after its last descendant, so {@code end(i)} is also the next sibling. The branches of a conditional are its
+ * children: the consequent comes first and the alternative starts at {@link #alternative(int)}. The children of a
+ * block are its body. All names and literals are stored once in a shared string table.
+ * <p>
+ * Optimization passes mark blocks and conditionals that don't render anything as silent. They're kept for the values
+ * they declare, but no render code is generated for them.
+ */
+public final class CompactAST {
+
+    public static final byte CONSTANT = 0;
+    public static final byte VARIABLE = 1;
+    public static final byte BLOCK = 2;
+    public static final byte INCLUDE = 3;
+    public static final byte CONDITIONAL = 4;
+
+    // marks silent nodes in kinds
+    private static final byte SILENT = 0x40;
+
+    private final int size;
+    private final byte[] kinds;
+    private final int[] ends;
+
+    // the value of constants, the name of variables, blocks and conditionals and the instance of includes
+    private final int[] values;
+
+    // the class of includes, the start of the alternative of conditionals (-1 if there's none) and the offset of the
+    // modifiers of variables
+    private final int[] extras;
+
+    // for every variable the number of its modifiers followed by their names
+    private final int[] modifiers;
+
+    private final String[] strings;
+
+    private CompactAST(int size, byte[] kinds, int[] ends, int[] values, int[] extras, int[] modifiers, String[] strings) {
+        this.size = size;
+        this.kinds = kinds;
+        this.ends = ends;
+        this.values = values;
+        this.extras = extras;
+        this.modifiers = modifiers;
+        this.strings = strings;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param node the index of the node
+     * @return one of CONSTANT, VARIABLE, BLOCK, INCLUDE and CONDITIONAL
+     */
+    public byte kind(int node) {
+        return (byte) (kinds[node] & ~SILENT);
+    }
+
+    /**
+     * @param node the index of the node
+     * @return true if the node only declares values, but doesn't render anything
+     */
+    public boolean isSilent(int node) {
+        return (kinds[node] & SILENT) != 0;
+    }
+
+    /**
+     * @param node the index of the node
+     * @return the index after the last descendant of the node, i.e. its next sibling
+     */
+    public int end(int node) {
+        return ends[node];
+    }
+
+    /**
+     * @param node the index of a conditional
+     * @return the start of the alternative or -1 if there's no else branch
+     */
+    public int alternative(int node) {
+        return extras[node];
+    }
+
+    /**
+     * @param node the index of a conditional
+     * @return the end of the consequent
+     */
+    public int consequentEnd(int node) {
+        return extras[node] >= 0 ? extras[node] : ends[node];
+    }
+
+    /**
+     * @param node the index of a constant
+     * @return the literal text
+     */
+    public String value(int node) {
+        return strings[values[node]];
+    }
+
+    /**
+     * @param node the index of a variable, block or conditional
+     * @return the name of the value
+     */
+    public String name(int node) {
+        return strings[values[node]];
+    }
+
+    /**
+     * @param node the index of an include
+     * @return the name of the instance
+     */
+    public String instance(int node) {
+        return strings[values[node]];
+    }
+
+    /**
+     * @param node the index of an include
+     * @return the fully qualified class of the included template
+     */
+    public String includeClass(int node) {
+        return strings[extras[node]];
+    }
+
+    /**
+     * @param node the index of a block
+     * @return the name of the class of the block body
+     */
+    public String blockClassName(int node) {
+        return Utils.toClassName(name(node));
+    }
+
+    /**
+     * @param node the index of a variable
+     * @return the number of modifiers
+     */
+    public int modifierCount(int node) {
+        return modifiers[extras[node]];
+    }
+
+    /**
+     * @param node  the index of a variable
+     * @param index the index of the modifier, the first is applied first
+     * @return the name of the modifier
+     */
+    public String modifier(int node, int index) {
+        return strings[modifiers[extras[node] + 1 + index]];
+    }
+
+    /**
+     * @param from the first node
+     * @param to   the end of the range
+     * @return the nodes in the range that aren't nested in others, e.g. the statements of a branch
+     */
+    public PrimitiveIterator.OfInt siblings(int from, int to) {
+        return new PrimitiveIterator.OfInt() {
+            int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= to)
+                    throw new NoSuchElementException();
+
+                int node = next;
+                next = ends[node];
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Visits the nodes in the range in document order, including the branches of conditionals but not the bodies of
+     * blocks, which belong to a class of their own.
+     *
+     * @param from    the first node
+     * @param to      the end of the range
+     * @param visitor the visitor
+     */
+    public void walk(int from, int to, ASTVisitor visitor) {
+        walk(from, to, true, visitor);
+    }
+
+    /**
+     * Like {@link #walk(int, int, ASTVisitor)}, but skips silent nodes.
+     *
+     * @param from    the first node
+     * @param to      the end of the range
+     * @param visitor the visitor
+     */
+    public void walkRendered(int from, int to, ASTVisitor visitor) {
+        walk(from, to, false, visitor);
+    }
+
+    private void walk(int from, int to, boolean silent, ASTVisitor visitor) {
+        // the open conditionals and whether their alternative has been entered
+        Deque<Integer> conditionals = new ArrayDeque<>();
+        Deque<Boolean> alternatives = new ArrayDeque<>();
+
+        int node = from;
+
+        while (true) {
+            if (!conditionals.isEmpty()) {
+                int conditional = conditionals.peek();
+
+                if (!alternatives.peek() && extras[conditional] == node) {
+                    visitor.enterAlternative(conditional);
+                    alternatives.pop();
+                    alternatives.push(true);
+                    continue;
+                }
+
+                if (ends[conditional] == node) {
+                    visitor.exitConditional(conditional);
+                    conditionals.pop();
+                    alternatives.pop();
+                    continue;
+                }
+            }
+
+            if (node >= to)
+                return;
+
+            if (!silent && isSilent(node)) {
+                node = ends[node];
+                continue;
+            }
+
+            switch (kinds[node] & ~SILENT) {
+                case CONSTANT:
+                    visitor.constant(node);
+                    break;
+
+                case VARIABLE:
+                    visitor.variable(node);
+                    break;
+
+                case BLOCK:
+                    visitor.block(node);
+                    break;
+
+                case INCLUDE:
+                    visitor.include(node);
+                    break;
+
+                case CONDITIONAL:
+                    visitor.enterConditional(node);
+                    conditionals.push(node);
+                    alternatives.push(false);
+                    node++;
+                    continue;
+            }
+
+            node = ends[node];
+        }
+    }
+
+    /**
+     * Creates the linked node view of the tree, see {@link ASTNode}. Silent nodes are left out, so the view renders
+     * the same output, but lacks the values only they declare.
+     *
+     * @return the root of the view, a NoOp
+     */
+    public ASTNode toNodes() {
+        ASTNode.NoOp root = new ASTNode.NoOp(null);
+
+        Deque<Branch> branches = new ArrayDeque<>();
+        branches.push(new Branch(-1, null, root));
+
+        for (int node = 0; ; node++) {
+            // switch to alternatives and close the branches that end here
+            while (branches.peek().owner != null) {
+                Branch branch = branches.peek();
+
+                if (branch.owner instanceof ASTNode.Conditional && !branch.alternative && extras[branch.node] == node) {
+                    ASTNode.Conditional conditional = (ASTNode.Conditional) branch.owner;
+                    conditional.alternative = new ASTNode.NoOp(conditional);
+                    branch.tail = conditional.alternative;
+                    branch.alternative = true;
+
+                } else if (ends[branch.node] == node) {
+                    branches.pop();
+
+                } else {
+                    break;
+                }
+            }
+
+            if (node == size)
+                return root;
+
+            if (isSilent(node)) {
+                node = ends[node] - 1;
+                continue;
+            }
+
+            Branch branch = branches.peek();
+            ASTNode prev = branch.tail;
+            ASTNode current;
+
+            switch (kind(node)) {
+                case CONSTANT:
+                    current = new ASTNode.ConstantValue(prev, value(node));
+                    break;
+
+                case VARIABLE:
+                    String[] names = new String[modifierCount(node)];
+                    for (int i = 0; i < names.length; i++)
+                        names[i] = modifier(node, i);
+
+                    current = new ASTNode.Variable(prev, name(node), Arrays.asList(names));
+                    break;
+
+                case INCLUDE:
+                    current = new ASTNode.Include(prev, includeClass(node), instance(node));
+                    break;
+
+                case BLOCK:
+                    ASTNode.Block block = new ASTNode.Block(prev, name(node));
+                    block.setBranch(new ASTNode.NoOp(block));
+                    current = block;
+                    branches.push(new Branch(node, block, block.branch));
+                    break;
+
+                default:
+                    ASTNode.Conditional conditional = new ASTNode.Conditional(prev, name(node));
+                    conditional.consequent = new ASTNode.NoOp(conditional);
+                    current = conditional;
+                    branches.push(new Branch(node, conditional, conditional.consequent));
+            }
+
+            prev.setNext(current);
+            branch.tail = current;
+        }
+    }
+
+    /**
+     * Converts a linked node tree.
+     *
+     * @param root the first node
+     * @return the compact tree
+     */
+    public static CompactAST of(ASTNode root) {
+        Builder builder = new Builder();
+
+        // pending nodes, or markers to close a node or start an alternative
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+
+            if (item == Builder.CLOSE) {
+                builder.close();
+                continue;
+            }
+
+            if (item == Builder.ALTERNATIVE) {
+                builder.alternative();
+                continue;
+            }
+
+            ASTNode node = (ASTNode) item;
+
+            if (node.getNext() != null)
+                stack.push(node.getNext());
+
+            if (node instanceof ASTNode.ConstantValue) {
+                builder.constant(((ASTNode.ConstantValue) node).value);
+
+            } else if (node instanceof ASTNode.Variable) {
+                builder.variable(((ASTNode.Variable) node).name, ((ASTNode.Variable) node).modifiers);
+
+            } else if (node instanceof ASTNode.Include) {
+                builder.include(((ASTNode.Include) node).classname, ((ASTNode.Include) node).instance);
+
+            } else if (node instanceof ASTNode.Block) {
+                builder.openBlock(((ASTNode.Block) node).blockName);
+                stack.push(Builder.CLOSE);
+                if (((ASTNode.Block) node).branch != null)
+                    stack.push(((ASTNode.Block) node).branch);
+
+            } else if (node instanceof ASTNode.Conditional) {
+                ASTNode.Conditional conditional = (ASTNode.Conditional) node;
+                builder.openConditional(conditional.name);
+                stack.push(Builder.CLOSE);
+
+                if (conditional.alternative != null) {
+                    stack.push(conditional.alternative);
+                    stack.push(Builder.ALTERNATIVE);
+                }
+
+                if (conditional.consequent != null)
+                    stack.push(conditional.consequent);
+
+            } else if (!(node instanceof ASTNode.NoOp)) {
+                throw new RuntimeException("Undefined ASTNode " + node.getClass().getName());
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * An open branch of the node view.
+     */
+    private static class Branch {
+
+        final int node;
+        final ASTNode owner;
+        ASTNode tail;
+        boolean alternative;
+
+        Branch(int node, ASTNode owner, ASTNode tail) {
+            this.node = node;
+            this.owner = owner;
+            this.tail = tail;
+        }
+    }
+
+    /**
+     * Appends nodes in document order. Blocks and conditionals stay open until they're closed, the nodes appended
+     * in the meantime are their children.
+     */
+    static final class Builder {
+
+        private static final Object CLOSE = new Object();
+        private static final Object ALTERNATIVE = new Object();
+
+        private int size;
+        private byte[] kinds = new byte[64];
+        private int[] ends = new int[64];
+        private int[] values = new int[64];
+        private int[] extras = new int[64];
+
+        private int modifierSize;
+        private int[] modifiers = new int[16];
+
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private String[] strings = new String[64];
+
+        private int depth;
+        private int[] open = new int[16];
+
+        private int string(String string) {
+            Integer index = stringIndices.get(string);
+
+            if (index == null) {
+                index = stringIndices.size();
+                stringIndices.put(string, index);
+
+                if (index == strings.length)
+                    strings = Arrays.copyOf(strings, index * 2);
+
+                strings[index] = string;
+            }
+
+            return index;
+        }
+
+        private int add(byte kind, int value, int extra) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                extras = Arrays.copyOf(extras, size * 2);
+            }
+
+            kinds[size] = kind;
+            ends[size] = size + 1;
+            values[size] = value;
+            extras[size] = extra;
+
+            return size++;
+        }
+
+        private void push(int node) {
+            if (depth == open.length)
+                open = Arrays.copyOf(open, depth * 2);
+
+            open[depth++] = node;
+        }
+
+        void constant(String value) {
+            add(CONSTANT, string(value), 0);
+        }
+
+        /**
+         * @return the number of nodes appended so far
+         */
+        int size() {
+            return size;
+        }
+
+        void variable(String name, List<String> names) {
+            if (modifierSize + names.size() + 1 > modifiers.length)
+                modifiers = Arrays.copyOf(modifiers, Math.max(modifiers.length * 2, modifierSize + names.size() + 1));
+
+            int offset = modifierSize;
+            modifiers[modifierSize++] = names.size();
+            for (String modifier : names)
+                modifiers[modifierSize++] = string(modifier);
+
+            add(VARIABLE, string(name), offset);
+        }
+
+        void include(String includeClass, String instance) {
+            add(INCLUDE, string(instance), string(includeClass));
+        }
+
+        void openBlock(String name) {
+            push(add(BLOCK, string(name), 0));
+        }
+
+        void openConditional(String name) {
+            push(add(CONDITIONAL, string(name), -1));
+        }
+
+        /**
+         * Opens a copy of a block or conditional of another tree.
+         *
+         * @param ast  the other tree
+         * @param node the block or conditional
+         */
+        void open(CompactAST ast, int node) {
+            if (ast.kind(node) == BLOCK)
+                openBlock(ast.name(node));
+            else
+                openConditional(ast.name(node));
+
+            if (ast.isSilent(node))
+                silence(innermost());
+        }
+
+        /**
+         * Copies a node and its descendants from another tree.
+         *
+         * @param ast          the other tree
+         * @param node         the node
+         * @param declarations true to only copy what declares values: constants are dropped, blocks and
+         *                     conditionals are silenced
+         */
+        void copy(CompactAST ast, int node, boolean declarations) {
+            copy(ast, node, ast.end(node), declarations);
+        }
+
+        /**
+         * Copies a range of nodes from another tree.
+         *
+         * @param ast          the other tree
+         * @param from         the first node
+         * @param to           the end of the range
+         * @param declarations true to only copy what declares values: constants are dropped, blocks and
+         *                     conditionals are silenced
+         */
+        void copy(CompactAST ast, int from, int to, boolean declarations) {
+            Deque<Integer> copied = new ArrayDeque<>();
+
+            for (int node = from; ; node++) {
+                // switch to alternatives and close the nodes that end here
+                while (!copied.isEmpty()) {
+                    int source = copied.peek();
+
+                    if (ast.kind(source) == CONDITIONAL && ast.alternative(source) == node && !hasAlternative(innermost())) {
+                        alternative();
+
+                    } else if (ast.end(source) == node) {
+                        copied.pop();
+                        close();
+
+                    } else {
+                        break;
+                    }
+                }
+
+                if (node == to)
+                    return;
+
+                switch (ast.kind(node)) {
+                    case CONSTANT:
+                        if (!declarations)
+                            constant(ast.value(node));
+                        break;
+
+                    case VARIABLE:
+                        String[] names = new String[ast.modifierCount(node)];
+                        for (int i = 0; i < names.length; i++)
+                            names[i] = ast.modifier(node, i);
+
+                        variable(ast.name(node), Arrays.asList(names));
+                        break;
+
+                    case INCLUDE:
+                        include(ast.includeClass(node), ast.instance(node));
+                        break;
+
+                    default:
+                        open(ast, node);
+                        if (declarations)
+                            silence(innermost());
+
+                        copied.push(node);
+                }
+            }
+        }
+
+        /**
+         * Marks a block or conditional as silent.
+         *
+         * @param node the node
+         */
+        void silence(int node) {
+            kinds[node] |= SILENT;
+        }
+
+        /**
+         * Starts the alternative of the innermost open conditional.
+         */
+        void alternative() {
+            extras[open[depth - 1]] = size;
+        }
+
+        /**
+         * Closes the innermost open node.
+         */
+        void close() {
+            ends[open[--depth]] = size;
+        }
+
+        /**
+         * @return the innermost open node or -1
+         */
+        int innermost() {
+            return depth > 0 ? open[depth - 1] : -1;
+        }
+
+        byte kind(int node) {
+            return (byte) (kinds[node] & ~SILENT);
+        }
+
+        boolean hasAlternative(int node) {
+            return extras[node] >= 0;
+        }
+
+        CompactAST build() {
+            return new CompactAST(size,
+                    Arrays.copyOf(kinds, size),
+                    Arrays.copyOf(ends, size),
+                    Arrays.copyOf(values, size),
+                    Arrays.copyOf(extras, size),
+                    Arrays.copyOf(modifiers, modifierSize),
+                    Arrays.copyOf(strings, stringIndices.size()));
+        }
+    }
+}
@@ -4,13 +4,26 @@ import org.apache.commons.text.translate.CharSequenceTranslator;
 import org.apache.commons.text.translate.EntityArrays;
 import org.apache.commons.text.translate.LookupTranslator;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Compiler {
 
@@ -22,9 +35,117 @@ public class Compiler {
                     }}
             ).with(new LookupTranslator(EntityArrays.JAVA_CTRL_CHARS_ESCAPE));
 
+    /**
+     * The holder of placeholder values in the generated code.
+     */
+    private static final String PLACEHOLDER_VALUE = "TemporizeTemplate.PlaceholderValue";
+
+    private static final String STREAMING_MODIFIERS = "TemporizeTemplate.StreamingModifiers";
+
+    /**
+     * The default limit for the estimated bytecode size of a render method, safely below {@link #HUGE_METHOD_SIZE}.
+     */
+    public static final int DEFAULT_METHOD_SIZE_LIMIT = 7000;
+
+    /**
+     * HotSpot doesn't JIT compile methods with more bytes of bytecode than this (-XX:-DontCompileHugeMethods).
+     */
+    static final int HUGE_METHOD_SIZE = 8000;
+
+    // rough estimates of the bytecode generated per node, they only need to be in the right order of magnitude
+    private static final int CONSTANT_SIZE = 10;
+    private static final int VARIABLE_SIZE = 12;
+    private static final int MODIFIER_SIZE = 3;
+    private static final int CONDITIONAL_SIZE = 24;
+    private static final int BLOCK_SIZE = 40;
+    private static final int INCLUDE_SIZE = 16;
+    private static final int CALL_SIZE = 10;
+
+    /**
+     * The default length above which literals are stored in a resource. Even if every char takes 3 bytes in the
+     * class file, literals of this length stay well below the 64 KB limit of the constant pool.
+     */
+    public static final int DEFAULT_LITERAL_BLOB_THRESHOLD = 8192;
+
+    /**
+     * Classes with more distinct literals store all of them in the resource: the pre-encoded literals are
+     * initialized in the static initializer, which must stay below the 64 KB method limit, and every literal takes
+     * two entries of the constant pool.
+     */
+    static final int MAX_CLASS_LITERALS = 4096;
+
+    /**
+     * The number of literal lengths initialized per method, when the offsets of the resource are too many for the
+     * static initializer.
+     */
+    static final int LENGTHS_PER_METHOD = 2048;
+
+    /**
+     * The number of top level checks per method of isEmpty(), about 20 bytes of bytecode each.
+     */
+    static final int EMPTY_CHECKS_PER_METHOD = 256;
+
+    private int methodSizeLimit = DEFAULT_METHOD_SIZE_LIMIT;
+
+    private int literalBlobThreshold = DEFAULT_LITERAL_BLOB_THRESHOLD;
+
+    private SharedLiterals sharedLiterals;
+
+    private Set<String> filters = Collections.emptySet();
+
+    private Consumer<String> warningHandler = warning -> {
+    };
+
     public Compiler() {
     }
 
+    /**
+     * Render methods whose estimated bytecode size exceeds the limit are split into helper methods, so that HotSpot
+     * keeps compiling them and javac doesn't fail with "code too large".
+     *
+     * @param methodSizeLimit the limit in bytes of bytecode, 0 disables splitting
+     * @return this
+     */
+    public Compiler setMethodSizeLimit(int methodSizeLimit) {
+        this.methodSizeLimit = methodSizeLimit;
+        return this;
+    }
+
+    /**
+     * Literals longer than the threshold are stored pre-encoded in a resource next to the generated class instead
+     * of the class file, see {@link Template#literals}.
+     *
+     * @param literalBlobThreshold the length in chars, 0 keeps all literals in the class file unless a class has
+     *                             more than {@link #MAX_CLASS_LITERALS}
+     * @return this
+     */
+    public Compiler setLiteralBlobThreshold(int literalBlobThreshold) {
+        this.literalBlobThreshold = literalBlobThreshold;
+        return this;
+    }
+
+    /**
+     * Modifiers declared as filters, <code>public static Appendable name(Appendable out)</code>, are applied while
+     * writing instead of creating a String per modifier, see <code>TemporizeTemplate.StreamingModifiers</code>.
+     *
+     * @param filters the names of the modifiers the modifier class declares as filters
+     * @return this
+     */
+    public Compiler setFilters(Collection<String> filters) {
+        this.filters = new HashSet<>(filters);
+        return this;
+    }
+
+    /**
+     * @param warningHandler receives a warning for every generated method that is estimated to be too large to
+     *                       be JIT compiled and for every class whose full constructor is omitted
+     * @return this
+     */
+    public Compiler setWarningHandler(Consumer<String> warningHandler) {
+        this.warningHandler = warningHandler;
+        return this;
+    }
+
     /**
      * @param node   the root node
      * @param aClass the class of the nodes to find
@@ -32,24 +153,27 @@ public class Compiler {
      * @return all nodes of type A in the current context
      */
     static <A extends ASTNode> List<A> getNodesOf(ASTNode node, Class<A> aClass) {
-        if (node == null) {
-            return new ArrayList<>();
-        }
-
         List<A> nodes = new ArrayList<>();
-        if (node.getClass().isAssignableFrom(aClass)) {
-            //noinspection unchecked
-            nodes.add((A) node);
-        }
 
-        if (node instanceof ASTNode.Conditional) {
-            nodes.addAll(getNodesOf(((ASTNode.Conditional) node).consequent, aClass));
+        Deque<ASTNode> stack = new ArrayDeque<>();
+        stack.push(node);
 
-            if (((ASTNode.Conditional) node).alternative != null)
-                nodes.addAll(getNodesOf(((ASTNode.Conditional) node).alternative, aClass));
-        }
+        while (!stack.isEmpty()) {
+            ASTNode current = stack.pop();
 
-        nodes.addAll(getNodesOf(node.next(), aClass));
+            if (aClass.isInstance(current))
+                nodes.add(aClass.cast(current));
+
+            if (current.getNext() != null)
+                stack.push(current.getNext());
+
+            if (current instanceof ASTNode.Conditional) {
+                if (((ASTNode.Conditional) current).alternative != null)
+                    stack.push(((ASTNode.Conditional) current).alternative);
+
+                stack.push(((ASTNode.Conditional) current).consequent);
+            }
+        }
 
         return nodes;
     }
@@ -62,53 +186,157 @@ public class Compiler {
 
     }
 
-    static String createStringValueSetter(String className, String type, String instanceName, int ident) {
-        return Ident.of(ident) + "    public " + className + " set" + Utils.toClassName(instanceName) + "(" + type + " " + instanceName + ") {\n" +
-                Ident.of(ident) + "        this." + instanceName + " = String.valueOf(" + instanceName + ");\n" +
+    /**
+     * Creates the setters of a block besides the one taking a list: rows from an Iterable, an Iterator or a Stream,
+     * which are consumed while writing, and elements of any of them mapped onto a single reused row. They're named
+     * <code>set[Block]Rows</code>, so <code>set[Block](null)</code> still refers to the list setter.
+     *
+     * @param className  the class the setters belong to
+     * @param blockClass the class of the rows
+     * @param name       the name of the block
+     * @param ident      the indentation level of the class
+     * @return the code of the setters
+     */
+    static String createRowSetters(String className, String blockClass, String name, int ident) {
+        String iterable = "Iterable<? extends " + blockClass + ">";
+        String iterator = "java.util.Iterator<? extends " + blockClass + ">";
+        String stream = "java.util.stream.Stream<? extends " + blockClass + ">";
+        String mapper = "java.util.function.BiConsumer<? super " + blockClass + ", ? super E> mapper";
+        String setter = "set" + Utils.toClassName(name) + "Rows";
+
+        return String.join("\n\n",
+                createRowSetter(className, setter, "", iterable + " " + name, name, name, ident),
+                createRowSetter(className, setter, "", iterator + " " + name, name,
+                        "TemporizeTemplate.RowSource.of(" + name + ")", ident),
+                createRowSetter(className, setter, "", stream + " " + name, name,
+                        "TemporizeTemplate.RowSource.of(" + name + ".iterator())", ident),
+                createRowSetter(className, setter, "<E> ", "Iterable<E> elements, " + mapper, name,
+                        "TemporizeTemplate.RowSource.flyweight(elements, new " + blockClass + "(), mapper)", ident),
+                createRowSetter(className, setter, "<E> ", "java.util.Iterator<E> elements, " + mapper, name,
+                        "TemporizeTemplate.RowSource.flyweight(elements, new " + blockClass + "(), mapper)", ident),
+                createRowSetter(className, setter, "<E> ", "java.util.stream.Stream<E> elements, " + mapper, name,
+                        "TemporizeTemplate.RowSource.flyweight(elements.iterator(), new " + blockClass + "(), mapper)", ident));
+    }
+
+    /**
+     * Creates the columnar setter <code>set[Block]Columns</code> of a block, which takes a row count and a column
+     * per value of the rows: values as {@code TemporizeTemplate.Column}, which sets text and numbers without
+     * converting them, and booleans as {@code IntPredicate}. A single row is filled from the columns for every index
+     * while writing, nested blocks and includes of the rows stay empty.
+     *
+     * @param className  the class the setter belongs to
+     * @param blockClass the class of the rows
+     * @param name       the name of the block
+     * @param rows       the symbols of the rows
+     * @param ident      the indentation level of the class
+     * @return the code of the setter or null if it would exceed the parameter limit of a java method
+     */
+    static String createColumnSetter(String className, String blockClass, String name, SymbolTable rows, int ident) {
+        Set<String> variables = rows.getVariableNames();
+        List<String> conditionals = rows.getConditionalValues();
+
+        if (variables.size() + conditionals.size() + 2 > 255)
+            return null;
+
+        List<String> parameters = new ArrayList<>();
+        parameters.add("int _rows");
+        variables.forEach(v -> parameters.add("TemporizeTemplate.Column " + v));
+        conditionals.forEach(c -> parameters.add("java.util.function.IntPredicate " + c));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(Ident.of(ident)).append("    public ").append(className).append(" set").append(Utils.toClassName(name))
+                .append("Columns(").append(String.join(", ", parameters)).append(") {\n");
+        sb.append(Ident.of(ident)).append("        this.").append(name).append(" = TemporizeTemplate.RowSource.columns(_rows, new ")
+                .append(blockClass).append("(), (_row, _i) -> {");
+
+        if (parameters.size() > 1) {
+            sb.append("\n");
+            variables.forEach(v -> sb.append(Ident.of(ident + 3)).append("_row.").append(v).append(" = ").append(v).append(".set(_row.").append(v).append(", _i);\n"));
+            conditionals.forEach(c -> sb.append(Ident.of(ident + 3)).append("_row.").append(c).append(" = ").append(c).append(".test(_i);\n"));
+            sb.append(Ident.of(ident + 2));
+        }
+
+        sb.append("});\n");
+        sb.append(Ident.of(ident)).append("        return this;\n");
+        sb.append(Ident.of(ident)).append("    }");
+
+        return sb.toString();
+    }
+
+    private static String createRowSetter(String className, String setter, String typeParameters, String parameters,
+                                          String name, String value, int ident) {
+        return Ident.of(ident) + "    public " + typeParameters + className + " " + setter + "(" + parameters + ") {\n" +
+                Ident.of(ident) + "        this." + name + " = " + value + ";\n" +
                 Ident.of(ident) + "        return this;\n" +
                 Ident.of(ident) + "    }";
     }
 
-    static String createTemplateSetter(String className, String instanceName, int ident) {
-        return Ident.of(ident) + "    public " + className + " set" + Utils.toClassName(instanceName) + "(TemporizeTemplate " + instanceName + ") {\n" +
-                Ident.of(ident) + "        this." + instanceName + " = " + instanceName + ".toString();\n" +
+    static String createValueSetter(String className, String type, String instanceName, int ident) {
+        return Ident.of(ident) + "    public " + className + " set" + Utils.toClassName(instanceName) + "(" + type + " " + instanceName + ") {\n" +
+                Ident.of(ident) + "        this." + instanceName + " = " + PLACEHOLDER_VALUE + ".set(this." + instanceName + ", " + instanceName + ");\n" +
                 Ident.of(ident) + "        return this;\n" +
                 Ident.of(ident) + "    }";
     }
 
-    static List<ASTNode> getNodesInContext(ASTNode current) {
-        List<ASTNode> nodes = new ArrayList<>();
+    /**
+     * @param name    the name of the conditional
+     * @param symbols the symbols of the class
+     * @return the condition as a java expression
+     */
+    static String createCondition(String name, SymbolTable symbols) {
+        switch (symbols.getType(name)) {
+            case STRING:
+                return "this." + name + " != null && !this." + name + ".isEmpty()";
+            case BLOCK:
+                return "!TemporizeTemplate.isEmpty(this." + name + ")";
+            case INCLUDE:
+                return "this." + name + " != null";
+            default:
+                return "this." + name;
+        }
+    }
 
-        while (current != null) {
-            if (current instanceof ASTNode.Conditional) {
-                nodes.addAll(getNodesInContext(((ASTNode.Conditional) current).consequent));
-                if (((ASTNode.Conditional) current).alternative != null)
-                    nodes.addAll(getNodesInContext(((ASTNode.Conditional) current).alternative));
-            } else
-                nodes.add(current);
+    /**
+     * @param ast  the tree
+     * @param from the first node
+     * @param to   the end of the range
+     * @return the estimated bytecode size of the nodes, including the branches of conditionals
+     */
+    static int estimateSize(CompactAST ast, int from, int to) {
+        int[] size = {0};
 
-            current = current.next();
-        }
+        ast.walkRendered(from, to, new ASTVisitor() {
+            @Override
+            public void constant(int node) {
+                size[0] += CONSTANT_SIZE;
+            }
 
-        return nodes;
-    }
+            @Override
+            public void variable(int node) {
+                size[0] += VARIABLE_SIZE + MODIFIER_SIZE * ast.modifierCount(node);
+            }
 
-    static ConditionalType getType(String name, List<ASTNode> nodesInContext) {
-        for (ASTNode node : nodesInContext)
-            if (node instanceof ASTNode.Variable && ((ASTNode.Variable) node).name.equals(name))
-                return ConditionalType.STRING;
-            else if (node instanceof ASTNode.Block && ((ASTNode.Block) node).blockName.equals(name))
-                return ConditionalType.BLOCK;
-            else if (node instanceof ASTNode.Include && ((ASTNode.Include) node).instance.equals(name))
-                return ConditionalType.INCLUDE;
+            @Override
+            public void block(int node) {
+                size[0] += BLOCK_SIZE;
+            }
+
+            @Override
+            public void include(int node) {
+                size[0] += INCLUDE_SIZE;
+            }
+
+            @Override
+            public void enterConditional(int node) {
+                size[0] += CONDITIONAL_SIZE;
+            }
+        });
 
-        return ConditionalType.BOOLEAN;
+        return size[0];
     }
 
     /**
-     * This generates .toString() calls for every statement in the body.
-     * <p>
-     * It doesn't traverse Block bodies, which are compiled as a subclass.
+     * This generates .toString() calls for every statement in the body, writing constants as string literals.
      *
      * @param node     the node to traverse
      * @param fnOutput callback that takes the expression to write and creates a writing command
@@ -116,100 +344,485 @@ public class Compiler {
      * @return the toString() body as a string of java code
      */
     static String createStringOutput(ASTNode node, Function<String, String> fnOutput, Function<String, String> fnInclude, int indent) {
-        if (node == null) {
-            return "";
+        return createStringOutput(node,
+                constant -> fnOutput.apply("\"" + ESCAPE_JAVA.translate(constant) + "\""),
+                fnOutput, fnInclude, indent);
+    }
+
+    /**
+     * This generates .toString() calls for every statement in the body.
+     * <p>
+     * It doesn't traverse Block bodies, which are compiled as a subclass.
+     *
+     * @param node       the node to traverse
+     * @param fnConstant callback that takes the value of a constant and creates a writing command
+     * @param fnOutput   callback that takes the expression to write and creates a writing command
+     * @param indent     level of indentation
+     * @return the toString() body as a string of java code
+     */
+    static String createStringOutput(ASTNode node, Function<String, String> fnConstant, Function<String, String> fnOutput, Function<String, String> fnInclude, int indent) {
+        CompactAST ast = CompactAST.of(node);
+        StringBuilder sb = new StringBuilder();
+        RenderMethod method = new RenderMethod(null, "toString", "", "", "", false,
+                new SymbolTable(ast, 0, ast.size()), Collections.emptySet(), fnConstant, fnOutput,
+                value -> fnOutput.apply(PLACEHOLDER_VALUE + ".text(" + value + ")"), null, fnInclude);
+        createStringOutput(ast, 0, ast.size(), method, indent, sb);
+        return sb.toString();
+    }
+
+    /**
+     * This generates .toString() calls for every statement in a range of nodes, in a single pass without recursion.
+     * Silent nodes are skipped.
+     *
+     * @param ast        the tree
+     * @param from       the first node
+     * @param to         the end of the range
+     * @param method     the render method
+     * @param indent     level of indentation
+     * @param sb         receives the java code
+     */
+    static void createStringOutput(CompactAST ast, int from, int to, RenderMethod method, int indent, StringBuilder sb) {
+        ast.walkRendered(from, to, new ASTVisitor() {
+            int level = indent;
+
+            @Override
+            public void constant(int node) {
+                sb.append(Ident.of(level)).append(method.fnConstant.apply(ast.value(node))).append(";\n");
+            }
+
+            @Override
+            public void variable(int node) {
+                sb.append(Ident.of(level)).append(createVariableOutput(ast, node, method)).append(";\n");
+            }
+
+            @Override
+            public void block(int node) {
+                sb.append("\n").append(Ident.of(level)).append("for (").append(ast.blockClassName(node)).append(" _block : this.").append(ast.name(node)).append(")\n");
+                sb.append(Ident.of(level + 1)).append(method.fnInclude.apply("_block")).append(";\n");
+            }
+
+            @Override
+            public void include(int node) {
+                sb.append(Ident.of(level)).append("if (this.").append(ast.instance(node)).append(" != null)\n");
+                sb.append(Ident.of(level + 1)).append(method.fnInclude.apply("this." + ast.instance(node))).append(";\n");
+            }
+
+            @Override
+            public void enterConditional(int node) {
+                sb.append("\n").append(Ident.of(level)).append("if (").append(createCondition(ast.name(node), method.symbols)).append(") {\n");
+                level++;
+            }
+
+            @Override
+            public void enterAlternative(int node) {
+                sb.append("\n").append(Ident.of(level - 1)).append("} else {\n");
+            }
+
+            @Override
+            public void exitConditional(int node) {
+                level--;
+                sb.append(Ident.of(level)).append("}\n\n");
+            }
+        });
+    }
+
+    /**
+     * Generates the body of isEmpty(). A template is empty unless one of the rendered branches contains a literal or
+     * a value, block or include with content. Values are checked before their modifiers are applied and blocks by
+     * their rows, so the check neither renders anything nor consumes rows streamed from an Iterator. Long checks are
+     * split into helper methods between top level nodes.
+     *
+     * @param ast     the tree
+     * @param from    the first node
+     * @param to      the end of the range
+     * @param symbols the symbols of the class
+     * @param indent  the indentation of the statements
+     * @param sb      the output
+     * @param helpers receives the helper methods
+     */
+    static void createEmptyCheck(CompactAST ast, int from, int to, SymbolTable symbols, int indent, StringBuilder sb, StringBuilder helpers) {
+        for (int node = from; node < to; node = ast.end(node)) {
+            if (ast.kind(node) == CompactAST.CONSTANT && !ast.isSilent(node) && !ast.value(node).isEmpty()) {
+                sb.append(Ident.of(indent)).append("return false;\n");
+                return;
+            }
+        }
+
+        List<StringBuilder> parts = new ArrayList<>(Collections.singletonList(new StringBuilder()));
+        boolean[] returned = {false};
+        ast.walkRendered(from, to, new ASTVisitor() {
+            int level = indent;
+            // the checks in the current part
+            int checks;
+            // conditionals entered after the current branch returned, their statements would be unreachable
+            int skipped;
+            // the conditionals whose consequent returned, by nesting level
+            final BitSet consequentReturned = new BitSet();
+
+            private StringBuilder out() {
+                if (level == indent && checks >= EMPTY_CHECKS_PER_METHOD) {
+                    parts.add(new StringBuilder());
+                    checks = 0;
+                }
+
+                checks++;
+                return parts.get(parts.size() - 1);
+            }
+
+            private void check(String condition) {
+                if (skipped == 0 && !returned[0]) {
+                    StringBuilder out = out();
+                    out.append(Ident.of(level)).append("if (").append(condition).append(")\n");
+                    out.append(Ident.of(level + 1)).append("return false;\n");
+                }
+            }
+
+            @Override
+            public void constant(int node) {
+                if (skipped == 0 && !returned[0] && !ast.value(node).isEmpty()) {
+                    out().append(Ident.of(level)).append("return false;\n");
+                    returned[0] = true;
+                }
+            }
+
+            @Override
+            public void variable(int node) {
+                check("this." + ast.name(node) + " != null && !this." + ast.name(node) + ".isEmpty()");
+            }
+
+            @Override
+            public void block(int node) {
+                check("!TemporizeTemplate.isEmpty(this." + ast.name(node) + ")");
+            }
+
+            @Override
+            public void include(int node) {
+                check("this." + ast.instance(node) + " != null && !this." + ast.instance(node) + ".isEmpty()");
+            }
+
+            @Override
+            public void enterConditional(int node) {
+                if (skipped > 0 || returned[0]) {
+                    skipped++;
+                    return;
+                }
+
+                out().append(Ident.of(level)).append("if (").append(createCondition(ast.name(node), symbols)).append(") {\n");
+                level++;
+                consequentReturned.clear(level);
+            }
+
+            @Override
+            public void enterAlternative(int node) {
+                if (skipped > 0)
+                    return;
+
+                consequentReturned.set(level, returned[0]);
+                returned[0] = false;
+                out().append(Ident.of(level - 1)).append("} else {\n");
+            }
+
+            @Override
+            public void exitConditional(int node) {
+                if (skipped > 0) {
+                    skipped--;
+                    return;
+                }
+
+                // the conditional only returns if both branches do
+                returned[0] = ast.alternative(node) >= 0 && consequentReturned.get(level) && returned[0];
+                StringBuilder out = out();
+                level--;
+                out.append(Ident.of(level)).append("}\n");
+            }
+        });
+
+        if (parts.size() == 1) {
+            sb.append(parts.get(0));
+            if (!returned[0])
+                sb.append(Ident.of(indent)).append("return true;\n");
+            return;
+        }
+
+        for (int i = 0; i < parts.size(); i++) {
+            helpers.append(Ident.of(indent - 1)).append("private boolean isEmpty$").append(i).append("() {\n");
+            helpers.append(parts.get(i));
+            if (i < parts.size() - 1 || !returned[0])
+                helpers.append(Ident.of(indent)).append("return true;\n");
+            helpers.append(Ident.of(indent - 1)).append("}\n\n");
+
+            sb.append(Ident.of(indent)).append("if (!isEmpty$").append(i).append("())\n");
+            sb.append(Ident.of(indent + 1)).append("return false;\n");
+        }
+        sb.append(Ident.of(indent)).append("return true;\n");
+    }
+
+    /**
+     * Generates the statement writing a variable. Modifiers are applied in order; a run of filters is chained into
+     * a single pass, and the filters at the end of the chain write straight into the output.
+     *
+     * @param ast    the tree
+     * @param node   the variable
+     * @param method the render method
+     * @return the statement
+     */
+    static String createVariableOutput(CompactAST ast, int node, RenderMethod method) {
+        String value = "this." + ast.name(node);
+        int count = ast.modifierCount(node);
+
+        int fused = count;
+        while (fused > 0 && method.filters.contains(ast.modifier(node, fused - 1)))
+            fused--;
+
+        // a String expression, or null while the value is still the PlaceholderValue
+        String expression = null;
+
+        for (int i = 0; i < fused; ) {
+            if (method.filters.contains(ast.modifier(node, i))) {
+                int end = i;
+                while (end < fused && method.filters.contains(ast.modifier(node, end)))
+                    end++;
+
+                expression = STREAMING_MODIFIERS + ".apply(" + createFilter(ast, node, i, end) + ", "
+                        + (expression != null ? expression : value) + ")";
+                i = end;
+
+            } else {
+                // String modifiers take the value as a String
+                expression = ast.modifier(node, i) + "("
+                        + (expression != null ? expression : PLACEHOLDER_VALUE + ".text(" + value + ")") + ")";
+                i++;
+            }
+        }
+
+        if (fused < count)
+            return method.fnFiltered.apply(createFilter(ast, node, fused, count), expression != null ? expression : value);
+
+        return expression != null
+                ? method.fnOutput.apply(expression)
+                : method.fnValue.apply(value);
+    }
+
+    /**
+     * @return a lambda chaining the filters from the modifier at index from to the one before to
+     */
+    private static String createFilter(CompactAST ast, int node, int from, int to) {
+        String filter = "_out";
+        for (int i = to - 1; i >= from; i--)
+            filter = ast.modifier(node, i) + "(" + filter + ")";
+
+        return "_out -> " + filter;
+    }
+
+    /**
+     * Generates the body of a render method. Bodies that are estimated larger than the method size limit are split
+     * along node boundaries: consecutive nodes are moved into helper methods, conditionals that are too large on
+     * their own call a helper per branch, and if the calls still don't fit they are grouped into helpers again.
+     *
+     * @param ast    the tree
+     * @param from   the first node
+     * @param to     the end of the range
+     * @param method the render method
+     * @param ident  the indentation of the class
+     * @param indent the indentation of the body
+     * @param sb     receives the body as java code
+     */
+    void createRenderBody(CompactAST ast, int from, int to, RenderMethod method, int ident, int indent, StringBuilder sb) {
+        int size = estimateSize(ast, from, to);
+
+        if (methodSizeLimit <= 0 || size <= methodSizeLimit) {
+            checkSize(method, size);
+            createStringOutput(ast, from, to, method, indent, sb);
+            return;
         }
 
-        List<ASTNode> nodesInContext = getNodesInContext(node);
-
-        if (node instanceof ASTNode.NoOp) {
-            return createStringOutput(node.next(), fnOutput, fnInclude, indent);
-
-        } else if (node instanceof ASTNode.ConstantValue) {
-            return Ident.of(indent)
-                    + fnOutput.apply("\"" + ESCAPE_JAVA.translate(((ASTNode.ConstantValue) node).value) + "\"") + ";\n"
-                    + createStringOutput(node.next(), fnOutput, fnInclude, indent);
-
-        } else if (node instanceof ASTNode.Variable) {
-            StringBuilder variable = new StringBuilder("this." + ((ASTNode.Variable) node).name);
-            for (String modifier : ((ASTNode.Variable) node).modifiers)
-                variable = new StringBuilder(modifier + "(" + variable + ")");
-
-            return Ident.of(indent) + fnOutput.apply(variable.toString()) + ";\n"
-                    + createStringOutput(node.next(), fnOutput, fnInclude, indent);
-
-        } else if (node instanceof ASTNode.Conditional) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\n").append(Ident.of(indent));
-            ConditionalType type = getType(((ASTNode.Conditional) node).name, nodesInContext);
-
-            switch (type) {
-                case STRING:
-                    sb.append("if (this.").append(((ASTNode.Conditional) node).name).append(" != null && !").append(((ASTNode.Conditional) node).name).append(".isEmpty()) {\n");
-                    break;
-                case BLOCK:
-                    sb.append("if (this.").append(((ASTNode.Conditional) node).name).append(" != null && !").append(((ASTNode.Conditional) node).name).append(".isEmpty()) {\n");
-                    break;
-                case INCLUDE:
-                    sb.append("if (this.").append(((ASTNode.Conditional) node).name).append(" != null) {\n");
-                    break;
-                case BOOLEAN:
-                    sb.append("if (this.").append(((ASTNode.Conditional) node).name).append(") {\n");
-                    break;
+        List<Statement> statements = new ArrayList<>();
+
+        int run = -1;
+        int runSize = 0;
+
+        for (PrimitiveIterator.OfInt nodes = ast.siblings(from, to); nodes.hasNext(); ) {
+            int current = nodes.nextInt();
+            if (ast.isSilent(current))
+                continue;
+
+            int nodeSize = estimateSize(ast, current, ast.end(current));
+            boolean splitConditional = ast.kind(current) == CompactAST.CONDITIONAL && nodeSize > methodSizeLimit;
+
+            if (run >= 0 && (splitConditional || runSize + nodeSize > methodSizeLimit)) {
+                statements.add(createRunHelper(ast, run, current, runSize, method, ident));
+
+                run = -1;
+                runSize = 0;
             }
 
-            sb.append(createStringOutput(((ASTNode.Conditional) node).consequent, fnOutput, fnInclude, indent + 1));
+            if (splitConditional) {
+                statements.add(createConditionalHelpers(ast, current, method, ident));
+
+            } else {
+                if (run < 0)
+                    run = current;
 
-            if (((ASTNode.Conditional) node).alternative != null) {
-                sb.append("\n").append(Ident.of(indent)).append("} else {\n");
-                sb.append(createStringOutput(((ASTNode.Conditional) node).alternative, fnOutput, fnInclude, indent + 1));
+                runSize += nodeSize;
             }
+        }
+
+        if (run >= 0)
+            statements.add(createRunHelper(ast, run, to, runSize, method, ident));
 
-            sb.append(Ident.of(indent)).append("}\n\n");
-            sb.append(createStringOutput(node.next(), fnOutput, fnInclude, indent));
-            return sb.toString();
+        // group the statements until they fit into a single method
+        int total = statements.stream().mapToInt(s -> s.size).sum();
+
+        while (total > methodSizeLimit && statements.size() > 1) {
+            List<Statement> grouped = new ArrayList<>();
+            List<Statement> group = new ArrayList<>();
+            int groupSize = 0;
+
+            for (Statement statement : statements) {
+                if (!group.isEmpty() && groupSize + statement.size > methodSizeLimit) {
+                    grouped.add(createGroupHelper(group, groupSize, method, ident));
+                    group = new ArrayList<>();
+                    groupSize = 0;
+                }
+
+                group.add(statement);
+                groupSize += statement.size;
+            }
 
-        } else if (node instanceof ASTNode.Block) {
-            return "\n" + Ident.of(indent) + "for (" + ((ASTNode.Block) node).blockClassName + " _block : " + ((ASTNode.Block) node).blockName + ")\n" +
-                    Ident.of(indent + 1) + fnInclude.apply("_block") + ";\n"
-                    + createStringOutput(node.next(), fnOutput, fnInclude, indent);
+            grouped.add(createGroupHelper(group, groupSize, method, ident));
 
-        } else if (node instanceof ASTNode.Include) {
-            return Ident.of(indent) + "if (" + ((ASTNode.Include) node).instance + " != null)\n"
-                    + Ident.of(indent + 1) + fnInclude.apply(((ASTNode.Include) node).instance) + ";\n" +
-                    createStringOutput(node.next(), fnOutput, fnInclude, indent);
+            if (grouped.size() == statements.size())
+                break;
 
-        } else {
-            throw new RuntimeException("Undefined ASTNode " + node.getClass().getName());
+            statements = grouped;
+            total = statements.stream().mapToInt(s -> s.size).sum();
         }
+
+        checkSize(method, total);
+
+        for (Statement statement : statements)
+            sb.append(statement.code.apply(indent));
+    }
+
+    private Statement createRunHelper(CompactAST ast, int from, int to, int size, RenderMethod method, int ident) {
+        checkSize(method, size);
+
+        StringBuilder body = new StringBuilder();
+        createStringOutput(ast, from, to, method, ident + 2, body);
+
+        String call = method.addHelper(body.toString(), ident + 1);
+
+        return new Statement(CALL_SIZE, indent -> Ident.of(indent) + call + ";\n");
+    }
+
+    private Statement createConditionalHelpers(CompactAST ast, int node, RenderMethod method, int ident) {
+        String condition = createCondition(ast.name(node), method.symbols);
+
+        StringBuilder consequentBody = new StringBuilder();
+        createRenderBody(ast, node + 1, ast.consequentEnd(node), method, ident, ident + 2, consequentBody);
+        String consequent = method.addHelper(consequentBody.toString(), ident + 1);
+
+        String alternative = null;
+        if (ast.alternative(node) >= 0) {
+            StringBuilder alternativeBody = new StringBuilder();
+            createRenderBody(ast, ast.alternative(node), ast.end(node), method, ident, ident + 2, alternativeBody);
+            alternative = method.addHelper(alternativeBody.toString(), ident + 1);
+        }
+
+        String alternativeCall = alternative;
+
+        return new Statement(CONDITIONAL_SIZE + 2 * CALL_SIZE, indent ->
+                "\n" + Ident.of(indent) + "if (" + condition + ") {\n"
+                        + Ident.of(indent + 1) + consequent + ";\n"
+                        + (alternativeCall != null
+                        ? Ident.of(indent) + "} else {\n" + Ident.of(indent + 1) + alternativeCall + ";\n"
+                        : "")
+                        + Ident.of(indent) + "}\n\n");
+    }
+
+    private Statement createGroupHelper(List<Statement> group, int size, RenderMethod method, int ident) {
+        if (group.size() == 1)
+            return group.get(0);
+
+        checkSize(method, size);
+
+        String call = method.addHelper(
+                group.stream().map(s -> s.code.apply(ident + 2)).collect(Collectors.joining()),
+                ident + 1);
+
+        return new Statement(CALL_SIZE, indent -> Ident.of(indent) + call + ";\n");
+    }
+
+    private void checkSize(RenderMethod method, int size) {
+        if (size > HUGE_METHOD_SIZE)
+            warningHandler.accept(String.format(
+                    "%s.%s is estimated at %d bytes of bytecode, HotSpot doesn't JIT compile methods larger than %d bytes",
+                    method.className, method.name, size, HUGE_METHOD_SIZE));
     }
 
     public Template compile(String packageName, String className, String modifier, ASTNode root, Consumer<String> includeHandler) {
-        return compile(packageName, className, modifier, root, 0, includeHandler);
+        return compile(packageName, className, modifier, CompactAST.of(root), includeHandler);
+    }
+
+    public Template compile(String packageName, String className, String modifier, CompactAST ast, Consumer<String> includeHandler) {
+        LiteralBlob blob = new LiteralBlob();
+        StringBuilder sb = new StringBuilder();
+        compile(packageName, className, modifier, ast, 0, ast.size(), 0, includeHandler, blob, sb);
+
+        return new Template(
+                packageName,
+                className,
+                sb.toString(),
+                blob.isEmpty() ? null : blob.toByteArray());
     }
 
+    /**
+     * Literals found in the given selection are referenced from its holder class instead of being stored in the
+     * generated class.
+     *
+     * @param sharedLiterals the literals shared between templates or null
+     * @return this
+     */
+    Compiler setSharedLiterals(SharedLiterals sharedLiterals) {
+        this.sharedLiterals = sharedLiterals;
+        return this;
+    }
+
+    private boolean isBlobLiteral(String constant) {
+        return literalBlobThreshold > 0 && constant.length() > literalBlobThreshold;
+    }
 
-    Template compile(String packageName, String className, String modifier, ASTNode root, int ident, Consumer<String> includeHandler) {
+    /**
+     * @param constant a literal
+     * @return the index of the literal in the holder of the shared literals or -1
+     */
+    private int sharedIndex(String constant) {
+        return sharedLiterals != null ? sharedLiterals.indexOf(constant) : -1;
+    }
+
+    /**
+     * Compiles a template or the body of a block into a class. The code of the class and of the nested classes of
+     * its blocks is appended to a single builder.
+     */
+    void compile(String packageName, String className, String modifier, CompactAST ast, int from, int to, int ident, Consumer<String> includeHandler, LiteralBlob blob, StringBuilder sb) {
         // variables, blocks and includes are all defining values
-        List<ASTNode.Variable> variables = getNodesOf(root, ASTNode.Variable.class);
-        List<ASTNode.Block> blocks = getNodesOf(root, ASTNode.Block.class);
-        List<ASTNode.Include> includes = getNodesOf(root, ASTNode.Include.class);
-        List<ASTNode.Conditional> conditionals = getNodesOf(root, ASTNode.Conditional.class);
+        SymbolTable symbols = new SymbolTable(ast, from, to);
+        List<Integer> variables = symbols.variables;
+        List<Integer> blocks = symbols.blocks;
+        List<Integer> includes = symbols.includes;
 
         // process compilation of includes from the outside
         // note: this may generate infinite loops
-        for (ASTNode.Include include : includes)
-            includeHandler.accept(include.classname);
+        for (int include : includes)
+            includeHandler.accept(ast.includeClass(include));
 
         // extract the variable names
-        Set<String> variableNames = variables.stream().map(e -> Utils.normalizeVarName(e.name)).collect(Collectors.toSet());
-        List<String> blockNames = blocks.stream().map(e -> Utils.normalizeVarName(e.blockName)).collect(Collectors.toList());
-        List<String> includeNames = includes.stream().map(e -> Utils.normalizeVarName(e.instance)).collect(Collectors.toList());
+        Set<String> variableNames = symbols.getVariableNames();
+        List<String> blockNames = blocks.stream().map(e -> Utils.normalizeVarName(ast.name(e))).collect(Collectors.toList());
+        List<String> includeNames = includes.stream().map(e -> Utils.normalizeVarName(ast.instance(e))).collect(Collectors.toList());
+        Set<String> blockNameSet = new HashSet<>(blockNames);
 
-        List<String> conditionalValues = conditionals.stream()
-                .filter(c -> !variableNames.contains(c.name) && !blockNames.contains(c.name) && !includeNames.contains(c.name))
-                .map(c -> c.name)
-                .collect(Collectors.toList());
+        List<String> conditionalValues = symbols.getConditionalValues();
 
         if (Utils.containsDuplicates(blockNames))
             throw new RuntimeException("Block variables must be unique:" + String.join(", ", blockNames));
@@ -225,30 +838,29 @@ public class Compiler {
         if (includeVarCollissions.size() > 0)
             throw new RuntimeException("Includes " + String.join(", ", includeVarCollissions) + " are already defined as variables.");
 
-        List<String> blockIncludeCollisions = includeNames.stream().filter(blockNames::contains).collect(Collectors.toList());
+        List<String> blockIncludeCollisions = includeNames.stream().filter(blockNameSet::contains).collect(Collectors.toList());
         if (blockIncludeCollisions.size() > 0)
             throw new RuntimeException("Includes " + String.join(", ", blockIncludeCollisions) + " are already defined as blocks.");
 
         // constructor parameters for variables
         List<String> constructorInitializers =
-                variables.stream().map(v -> "String " + v.name)
+                variables.stream().map(v -> "String " + ast.name(v))
                         .distinct()
                         .sorted()
                         .collect(Collectors.toList());
 
         // constructor parameters for blocks
         constructorInitializers.addAll(blocks.stream()
-                .map(b -> "List<" + b.blockClassName + "> " + b.blockName).collect(Collectors.toList()));
+                .map(b -> "List<" + ast.blockClassName(b) + "> " + ast.name(b)).collect(Collectors.toList()));
 
         // constructor parameters for includes
         constructorInitializers.addAll(includes.stream()
-                .map(i -> i.classname + " " + i.instance).collect(Collectors.toList()));
+                .map(i -> ast.includeClass(i) + " " + ast.instance(i)).collect(Collectors.toList()));
 
         // constructor parameters for includes
         constructorInitializers.addAll(conditionalValues.stream()
                 .map(c -> "boolean " + c).collect(Collectors.toList()));
 
-        StringBuilder sb = new StringBuilder();
         if (packageName != null) {
             sb.append("package ").append(packageName).append(";\n\n");
             sb.append("import net.h34t.temporize.TemporizeTemplate;\n");
@@ -267,15 +879,15 @@ public class Compiler {
 
         // variable property definitions
         for (String var : variableNames)
-            sb.append(Ident.of(ident)).append("    private String ").append(var).append(" = \"\";\n");
+            sb.append(Ident.of(ident)).append("    private ").append(PLACEHOLDER_VALUE).append(" ").append(var).append(";\n");
 
         // block property definitions
-        for (ASTNode.Block block : blocks)
-            sb.append(Ident.of(ident)).append("    private List<").append(block.blockClassName).append("> ").append(block.blockName).append(" = new ArrayList<>();\n");
+        for (int block : blocks)
+            sb.append(Ident.of(ident)).append("    private Iterable<? extends ").append(ast.blockClassName(block)).append("> ").append(ast.name(block)).append(" = new ArrayList<>();\n");
 
         // include property definitions
-        for (ASTNode.Include inc : includes)
-            sb.append(Ident.of(ident)).append("    private ").append(inc.classname).append(" ").append(inc.instance).append(";\n");
+        for (int inc : includes)
+            sb.append(Ident.of(ident)).append("    private ").append(ast.includeClass(inc)).append(" ").append(ast.instance(inc)).append(";\n");
 
         // conditional property definitions
         for (String cond : conditionalValues)
@@ -289,69 +901,247 @@ public class Compiler {
         sb.append(Ident.of(ident)).append("    }\n\n");
 
 
-        // full constructor
-        if (!constructorInitializers.isEmpty()) {
+        // full constructor, unless it exceeds the 255 parameter slots of a java method (including this)
+        if (constructorInitializers.size() >= 255)
+            warningHandler.accept(String.format(
+                    "%s has %d values, blocks, includes and conditionals, its full constructor is omitted as java methods take at most 254 parameters",
+                    className, constructorInitializers.size()));
+
+        if (!constructorInitializers.isEmpty() && constructorInitializers.size() < 255) {
             sb.append(Ident.of(ident)).append("    public ").append(className).append("(");
             sb.append(String.join(", ", constructorInitializers))
                     .append(") {\n");
-            variableNames.forEach(v -> sb.append(Ident.of(ident + 2)).append("this.").append(v).append(" = ").append(v).append(";\n"));
-            blocks.forEach(b -> sb.append(Ident.of(ident + 2)).append("this.").append(b.blockName).append(" = ").append(b.blockName).append(";\n"));
-            includes.forEach(b -> sb.append(Ident.of(ident + 2)).append("this.").append(b.instance).append(" = ").append(b.instance).append(";\n"));
+            variableNames.forEach(v -> sb.append(Ident.of(ident + 2)).append("this.").append(v).append(" = ").append(PLACEHOLDER_VALUE).append(".set(null, ").append(v).append(");\n"));
+            blocks.forEach(b -> sb.append(Ident.of(ident + 2)).append("this.").append(ast.name(b)).append(" = ").append(ast.name(b)).append(";\n"));
+            includes.forEach(i -> sb.append(Ident.of(ident + 2)).append("this.").append(ast.instance(i)).append(" = ").append(ast.instance(i)).append(";\n"));
             conditionalValues.forEach(c -> sb.append(Ident.of(ident + 2)).append("this.").append(c).append(" = ").append(c).append(";\n"));
             sb.append(Ident.of(ident + 1)).append("}\n\n");
         }
 
         // variable setters
         for (String var : variableNames) {
-            sb.append(createSetter(className, "String", var, ident)).append("\n\n");
-            sb.append(createStringValueSetter(className, "long", var, ident)).append("\n\n");
-            sb.append(createTemplateSetter(className, var, ident)).append("\n\n");
+            sb.append(createValueSetter(className, "String", var, ident)).append("\n\n");
+            sb.append(createValueSetter(className, "CharSequence", var, ident)).append("\n\n");
+            sb.append(createValueSetter(className, "long", var, ident)).append("\n\n");
+            sb.append(createValueSetter(className, "double", var, ident)).append("\n\n");
+            sb.append(createValueSetter(className, "TemporizeTemplate", var, ident)).append("\n\n");
         }
 
         // block setters
-        for (ASTNode.Block block : blocks)
-            sb.append(Ident.of(ident)).append(createSetter(className, "List<" + block.blockClassName + ">", block.blockName, ident)).append("\n\n");
+        for (int block : blocks) {
+            sb.append(createSetter(className, "List<" + ast.blockClassName(block) + ">", ast.name(block), ident)).append("\n\n");
+            sb.append(createRowSetters(className, ast.blockClassName(block), ast.name(block), ident)).append("\n\n");
+
+            String columnSetter = createColumnSetter(className, ast.blockClassName(block), ast.name(block),
+                    new SymbolTable(ast, block + 1, ast.end(block)), ident);
+            if (columnSetter != null)
+                sb.append(columnSetter).append("\n\n");
+        }
 
         // include setters
-        for (ASTNode.Include elem : includes)
-            sb.append(Ident.of(ident)).append(createSetter(className, elem.classname, elem.instance, ident)).append("\n\n");
+        for (int elem : includes)
+            sb.append(createSetter(className, ast.includeClass(elem), ast.instance(elem), ident)).append("\n\n");
 
         // conditional setters
         for (String elem : conditionalValues)
-            sb.append(Ident.of(ident)).append(createSetter(className, "boolean", elem, ident)).append("\n\n");
+            sb.append(createSetter(className, "boolean", elem, ident)).append("\n\n");
 
         // output body
         sb.append(Ident.of(ident)).append("    @Override\n");
         sb.append(Ident.of(ident)).append("    public String toString() {\n");
-        sb.append(Ident.of(ident)).append("        try {\n");
-        sb.append(Ident.of(ident)).append("            java.io.Writer w = new java.io.StringWriter();\n");
-        sb.append(Ident.of(ident)).append("            write(w);\n");
-        sb.append(Ident.of(ident)).append("            return w.toString();\n");
-        sb.append(Ident.of(ident)).append("        } catch (java.io.IOException e) {\n");
-        sb.append(Ident.of(ident)).append("            throw new RuntimeException(e);\n");
-        sb.append(Ident.of(ident)).append("        }\n");
+        sb.append(Ident.of(ident)).append("        StringBuilder sb = new StringBuilder(sizeHint());\n");
+        sb.append(Ident.of(ident)).append("        appendTo(sb);\n");
+        sb.append(Ident.of(ident)).append("        return sb.toString();\n");
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        // classes with too many literals for their static initializer and constant pool keep them in the resource
+        boolean manyLiterals = countLiterals(ast, from, to) > MAX_CLASS_LITERALS;
+        Predicate<String> inBlob = constant -> isBlobLiteral(constant) || manyLiterals && sharedIndex(constant) < 0;
+
+        // in-memory output body, no locking and no checked exceptions
+        sb.append(Ident.of(ident)).append("    @Override\n");
+        sb.append(Ident.of(ident)).append("    public void appendTo(StringBuilder sb) {\n");
+        sb.append(Ident.of(ident)).append("        int start = sb.length();\n");
+        sb.append(Ident.of(ident)).append("        sb.ensureCapacity(start + sizeHint());\n");
+        RenderMethod appendTo = new RenderMethod(className, "appendTo", "StringBuilder sb", "sb", "", false, symbols, filters,
+                s -> inBlob.test(s)
+                        ? "sb.append(BLOB.get(" + blob.add(s) + "))"
+                        : sharedIndex(s) >= 0
+                        ? "sb.append(" + sharedLiterals.getClassName() + ".LITERALS.get(" + sharedIndex(s) + "))"
+                        : "sb.append(\"" + ESCAPE_JAVA.translate(s) + "\")",
+                s -> "sb.append(" + s + ")",
+                v -> PLACEHOLDER_VALUE + ".append(sb, " + v + ")",
+                (filter, v) -> STREAMING_MODIFIERS + ".append(sb, " + filter + ", " + v + ")",
+                s -> s + ".appendTo(sb)");
+        createRenderBody(ast, from, to, appendTo, ident, ident + 2, sb);
+        // the shared estimate is only written when it changes, steady renders only read it
+        sb.append(Ident.of(ident)).append("        int dynamic = dynamicLength;\n");
+        sb.append(Ident.of(ident)).append("        int estimate = TemporizeTemplate.estimate(dynamic, sb.length() - start - LITERAL_LENGTH);\n");
+        sb.append(Ident.of(ident)).append("        if (estimate != dynamic)\n");
+        sb.append(Ident.of(ident)).append("            dynamicLength = estimate;\n");
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        // size prediction
+        int[] literalLength = {0};
+        RenderMethod measure = new RenderMethod(className, "measure", "", "", "", true, symbols, filters,
+                constant -> {
+                    literalLength[0] += constant.length();
+                    return "n += " + constant.length();
+                },
+                s -> "n += " + s + ".length()",
+                v -> "n += " + PLACEHOLDER_VALUE + ".length(" + v + ")",
+                (filter, v) -> "n += " + STREAMING_MODIFIERS + ".length(" + filter + ", " + v + ")",
+                s -> "n += " + s + ".measure()");
+        StringBuilder measureOutput = new StringBuilder();
+        createRenderBody(ast, from, to, measure, ident, ident + 2, measureOutput);
+
+        sb.append(Ident.of(ident)).append("    @Override\n");
+        sb.append(Ident.of(ident)).append("    public int sizeHint() {\n");
+        sb.append(Ident.of(ident)).append("        return Math.max(LITERAL_LENGTH + dynamicLength, 16);\n");
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        sb.append(Ident.of(ident)).append("    @Override\n");
+        sb.append(Ident.of(ident)).append("    public int measure() {\n");
+        sb.append(Ident.of(ident)).append("        int n = 0;\n");
+        sb.append(measureOutput);
+        sb.append(Ident.of(ident)).append("        return n;\n");
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        // emptiness check, without rendering anything
+        sb.append(Ident.of(ident)).append("    @Override\n");
+        sb.append(Ident.of(ident)).append("    public boolean isEmpty() {\n");
+        StringBuilder emptyCheckHelpers = new StringBuilder();
+        createEmptyCheck(ast, from, to, symbols, ident + 2, sb, emptyCheckHelpers);
         sb.append(Ident.of(ident)).append("    }\n\n");
+        sb.append(emptyCheckHelpers);
 
         // output body
+        RenderMethod write = new RenderMethod(className, "write", "java.io.Writer w", "w", " throws java.io.IOException", false, symbols, filters,
+                s -> inBlob.test(s)
+                        ? "w.write(BLOB.get(" + blob.add(s) + "))"
+                        : sharedIndex(s) >= 0
+                        ? "w.write(" + sharedLiterals.getClassName() + ".LITERALS.get(" + sharedIndex(s) + "))"
+                        : "w.write(\"" + ESCAPE_JAVA.translate(s) + "\")",
+                s -> "w.write(" + s + ")",
+                v -> PLACEHOLDER_VALUE + ".write(w, " + v + ")",
+                (filter, v) -> STREAMING_MODIFIERS + ".write(w, " + filter + ", " + v + ")",
+                s -> s + ".write(w)");
         sb.append(Ident.of(ident)).append("    @Override\n");
         sb.append(Ident.of(ident)).append("    public void write(java.io.Writer w) throws java.io.IOException {\n");
-        sb.append(createStringOutput(root,
-                s -> "w.write(" + s + ")",
-                s -> s + ".write(w)",
-                ident + 2));
-        sb.append(Ident.of(ident)).append("    }\n");
+        createRenderBody(ast, from, to, write, ident, ident + 2, sb);
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        // byte output body, constants are copied from the pre-encoded literals
+        Map<String, Integer> literals = new LinkedHashMap<>();
+        RenderMethod writeBytes = new RenderMethod(className, "writeBytes",
+                "java.io.OutputStream os, java.nio.charset.Charset cs, byte[][] l", "os, cs, l",
+                " throws java.io.IOException", false, symbols, filters,
+                constant -> inBlob.test(constant)
+                        ? "BLOB.write(" + blob.add(constant) + ", os, cs)"
+                        : sharedIndex(constant) >= 0
+                        ? "os.write(" + sharedLiterals.getClassName() + ".LITERALS.encoded(cs)[" + sharedIndex(constant) + "])"
+                        : "os.write(l[" + literals.computeIfAbsent(constant, c -> literals.size()) + "])",
+                s -> "os.write(" + s + ".getBytes(cs))",
+                v -> PLACEHOLDER_VALUE + ".write(os, cs, " + v + ")",
+                (filter, v) -> STREAMING_MODIFIERS + ".write(os, cs, " + filter + ", " + v + ")",
+                s -> s + ".write(os, cs)");
+        StringBuilder byteOutput = new StringBuilder();
+        createRenderBody(ast, from, to, writeBytes, ident, ident + 2, byteOutput);
 
+        sb.append(Ident.of(ident)).append("    @Override\n");
+        sb.append(Ident.of(ident)).append("    public void write(java.io.OutputStream os, java.nio.charset.Charset cs) throws java.io.IOException {\n");
+        if (!literals.isEmpty() || !writeBytes.helpers.isEmpty())
+            sb.append(Ident.of(ident)).append("        byte[][] l = LITERALS.encoded(cs);\n");
+        sb.append(byteOutput);
+        sb.append(Ident.of(ident)).append("    }\n\n");
+
+        // helper methods of render methods that were split up
+        for (RenderMethod method : Arrays.asList(appendTo, measure, write, writeBytes))
+            for (String helper : method.helpers)
+                sb.append(helper).append("\n");
+
+        sb.append(Ident.of(ident)).append("    private static final TemporizeTemplate.Literals LITERALS = new TemporizeTemplate.Literals(");
+        sb.append(literals.keySet().stream()
+                .map(literal -> "\n" + Ident.of(ident + 3) + "\"" + ESCAPE_JAVA.translate(literal) + "\"")
+                .collect(Collectors.joining(",")));
+        sb.append(");\n\n");
+
+        // the length of all literals in the template, no matter if they're rendered or not
+        sb.append(Ident.of(ident)).append("    private static final int LITERAL_LENGTH = ").append(literalLength[0]).append(";\n\n");
 
-        for (ASTNode.Block block : blocks) {
-            sb.append("\n").append(compile(null, block.blockClassName, modifier, block.branch, ident + 1, includeHandler));
+        // the learned difference between the literal length and the actual output length
+        sb.append(Ident.of(ident)).append("    private static volatile int dynamicLength;\n");
+
+
+        for (int block : blocks) {
+            sb.append("\n");
+            compile(null, ast.blockClassName(block), modifier, ast, block + 1, ast.end(block), ident + 1, includeHandler, blob, sb);
+        }
+
+        // the large literals of this class and its nested classes, which are compiled by now
+        if (ident == 0 && !blob.isEmpty()) {
+            sb.append("\n").append(Ident.of(ident)).append("    private static final TemporizeTemplate.Blob BLOB = new TemporizeTemplate.Blob(")
+                    .append(className).append(".class, \"").append(className).append(LiteralBlob.EXTENSION).append("\",");
+            int[] offsets = blob.offsets();
+
+            if (offsets.length <= LENGTHS_PER_METHOD) {
+                sb.append(Arrays.stream(offsets)
+                        .mapToObj(String::valueOf)
+                        .collect(Collectors.joining(", ", "\n" + Ident.of(ident + 3), ");\n")));
+            } else {
+                // the lengths of the literals are small constants, initialized by helpers of bounded size
+                List<String> helpers = new ArrayList<>();
+                StringBuilder methods = new StringBuilder();
+
+                for (int i = 1; i < offsets.length; i += LENGTHS_PER_METHOD) {
+                    String helper = "lengths$" + helpers.size();
+                    helpers.add(helper + "()");
+
+                    methods.append("\n").append(Ident.of(ident + 1)).append("private static int[] ").append(helper).append("() {\n");
+                    methods.append(Ident.of(ident + 2)).append("return new int[]{");
+                    methods.append(IntStream.range(i, Math.min(i + LENGTHS_PER_METHOD, offsets.length))
+                            .mapToObj(o -> String.valueOf(offsets[o] - offsets[o - 1]))
+                            .collect(Collectors.joining(", ")));
+                    methods.append("};\n");
+                    methods.append(Ident.of(ident + 1)).append("}\n");
+                }
+
+                sb.append("\n").append(Ident.of(ident + 3)).append("TemporizeTemplate.Blob.offsets(").append(offsets[0]).append(", ")
+                        .append(String.join(", ", helpers)).append("));\n");
+                sb.append(methods);
+            }
         }
 
         sb.append(Ident.of(ident)).append("}\n");
+    }
 
-        return new Template(
-                packageName,
-                className,
-                sb.toString());
+    /**
+     * @return the number of distinct literals rendered by the class of the range, not counting its blocks
+     */
+    private static int countLiterals(CompactAST ast, int from, int to) {
+        Set<String> literals = new HashSet<>();
+
+        ast.walkRendered(from, to, new ASTVisitor() {
+            @Override
+            public void constant(int node) {
+                literals.add(ast.value(node));
+            }
+        });
+
+        return literals.size();
     }
 
+    /**
+     * A statement of a split render method and its estimated size.
+     */
+    private static class Statement {
+
+        final int size;
+        final IntFunction<String> code;
+
+        Statement(int size, IntFunction<String> code) {
+            this.size = size;
+            this.code = code;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package net.h34t.temporize;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The comment block at the top of every generated java file.
+ * <p>
+ * It marks the file as generated by temporize and records what it was generated from, i.e. the hash of the template
+ * source, the compiler that generated it and the templates it includes. This is enough to decide whether a
+ * template needs to be compiled again without parsing it.
+ */
+class GeneratedHeader {
+
+    static final String MARKER = "/* $TEMPORIZE";
+
+    private static final String SOURCE_HASH = "/* $TEMPORIZE$SOURCE-HASH:";
+    private static final String COMPILER = "/* $TEMPORIZE$COMPILER:";
+    private static final String INCLUDES = "/* $TEMPORIZE$INCLUDES:";
+    private static final String END = " */";
+
+    final String sourceHash;
+    final String compiler;
+    final List<String> includes;
+
+    GeneratedHeader(String sourceHash, String compiler, Collection<String> includes) {
+        this.sourceHash = sourceHash;
+        this.compiler = compiler;
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+    }
+
+    /**
+     * Reads the header of a generated file.
+     *
+     * @param file the java file
+     * @return the header or null if the file doesn't exist, wasn't generated by temporize or was generated by a
+     * version that didn't write a complete header
+     * @throws IOException on read errors
+     */
+    static GeneratedHeader read(Path file) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String sourceHash = value(reader.readLine(), SOURCE_HASH);
+            String compiler = value(reader.readLine(), COMPILER);
+            String includes = value(reader.readLine(), INCLUDES);
+
+            if (sourceHash == null || compiler == null || includes == null)
+                return null;
+
+            return new GeneratedHeader(sourceHash, compiler, includes.isEmpty()
+                    ? Collections.emptyList()
+                    : Arrays.asList(includes.split(" ")));
+        }
+    }
+
+    /**
+     * Checks only the first line, which has been the same in all versions.
+     *
+     * @param file the java file
+     * @return true if the file was generated by temporize
+     * @throws IOException on read errors
+     */
+    static boolean isGenerated(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            return line != null && line.startsWith(MARKER);
+        }
+    }
+
+    private static String value(String line, String prefix) {
+        if (line == null || !line.startsWith(prefix) || !line.endsWith(END))
+            return null;
+
+        return line.substring(prefix.length(), line.length() - END.length());
+    }
+
+    /**
+     * @param sourceHash the hash of the current template source
+     * @param compiler   the current compiler signature
+     * @return true if the generated file was created from the same source by the same compiler
+     */
+    boolean isUpToDate(String sourceHash, String compiler) {
+        return this.sourceHash.equals(sourceHash) && this.compiler.equals(compiler);
+    }
+
+    String format() {
+        return SOURCE_HASH + sourceHash + END + "\n"
+                + COMPILER + compiler + END + "\n"
+                + INCLUDES + String.join(" ", includes) + END + "\n"
+                + "/* Auto-generated file: no not edit, changes will be lost */\n";
+    }
+}
@@ -2,7 +2,18 @@ package net.h34t.temporize;
 
 public class Ident {
 
+    private static final String[] LEVELS = new String[32];
+
+    static {
+        for (int level = 0; level < LEVELS.length; level++)
+            LEVELS[level] = create(level);
+    }
+
     public static String of(int level) {
+        return level < LEVELS.length ? LEVELS[level] : create(level);
+    }
+
+    private static String create(int level) {
         StringBuilder sb = new StringBuilder();
 
         for (int i = 0; i < level; i++)
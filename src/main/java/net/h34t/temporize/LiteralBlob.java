@@ -0,0 +1,90 @@
+package net.h34t.temporize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the large literals of a template and the nested classes of its blocks. They're written UTF-8 encoded
+ * into a resource next to the generated class and loaded by TemporizeTemplate.Blob.
+ */
+class LiteralBlob {
+
+    /**
+     * The file extension of the resource.
+     */
+    static final String EXTENSION = ".literals";
+
+    /**
+     * Marks the resource as generated by temporize, must match TemporizeTemplate.Blob.
+     */
+    static final byte[] MAGIC = "TEMPORIZE-LITERALS\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, Integer> indices = new LinkedHashMap<>();
+
+    /**
+     * @param literal the literal
+     * @return the index of the literal in the blob
+     */
+    int add(String literal) {
+        return indices.computeIfAbsent(literal, l -> indices.size());
+    }
+
+    boolean isEmpty() {
+        return indices.isEmpty();
+    }
+
+    /**
+     * @return the resource content
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(MAGIC, 0, MAGIC.length);
+
+        for (String literal : indices.keySet()) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            os.write(bytes, 0, bytes.length);
+        }
+
+        return os.toByteArray();
+    }
+
+    /**
+     * @return the start of every literal in the resource, followed by the end of the last one
+     */
+    int[] offsets() {
+        int[] offsets = new int[indices.size() + 1];
+        offsets[0] = MAGIC.length;
+
+        int i = 0;
+        for (String literal : indices.keySet()) {
+            offsets[i + 1] = offsets[i] + literal.getBytes(StandardCharsets.UTF_8).length;
+            i++;
+        }
+
+        return offsets;
+    }
+
+    /**
+     * @param file the file
+     * @return true if the file is a literal resource generated by temporize
+     * @throws IOException on read errors
+     */
+    static boolean isGenerated(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] start = new byte[MAGIC.length];
+            int n = 0;
+
+            for (int r; n < start.length && (r = is.read(start, n, start.length - n)) != -1; )
+                n += r;
+
+            return Arrays.equals(MAGIC, start);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package net.h34t.temporize;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The list of files generated into an output directory, stored in the directory itself.
+ * <p>
+ * Every file is listed with the template it was generated from, the hash of the template source, the compiler
+ * signature, the hash of its content and the size and modification time it was written with. A file whose size and
+ * modification time are unchanged is assumed to still have the recorded content, so deciding whether a template is
+ * up to date, whether a file needs to be written and which files are orphaned doesn't require opening any of them.
+ * <p>
+ * The manifest is replaced atomically, an interrupted build leaves the previous one in place. Without a manifest,
+ * e.g. in directories generated by older versions, the headers of the generated files are used instead.
+ */
+class Manifest {
+
+    static final String FILE_NAME = ".temporize-manifest";
+
+    private static final String MAGIC = "TEMPORIZE-MANIFEST 1";
+
+    private final Path directory;
+
+    /**
+     * The entries by the path of their file relative to the directory.
+     */
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    Manifest(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param directory the output directory
+     * @return the manifest of the directory or null if there is none or it can't be read
+     * @throws IOException on read errors
+     */
+    static Manifest read(Path directory) throws IOException {
+        Manifest manifest = new Manifest(directory);
+
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            if (!MAGIC.equals(reader.readLine()))
+                return null;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+
+                if (fields.length != 8)
+                    return null;
+
+                manifest.entries.put(fields[0], new Entry(fields[0], fields[1], fields[2], fields[3],
+                        fields[4].isEmpty() ? Collections.emptyList() : Arrays.asList(fields[4].split(" ")),
+                        fields[5], Long.parseLong(fields[6]), Long.parseLong(fields[7])));
+            }
+
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return null;
+        }
+
+        return manifest;
+    }
+
+    private String relativize(Path file) {
+        return directory.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param file a file in the directory
+     * @return the entry of the file or null
+     */
+    Entry get(Path file) {
+        return entries.get(relativize(file));
+    }
+
+    /**
+     * @return all files listed in the manifest
+     */
+    List<Path> getFiles() {
+        List<Path> files = new ArrayList<>();
+
+        for (String path : entries.keySet())
+            files.add(directory.resolve(path));
+
+        return files;
+    }
+
+    /**
+     * Lists a file that wasn't generated in this run, but is still valid.
+     *
+     * @param entry the entry of a previous manifest
+     */
+    void keep(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    /**
+     * Writes a generated file unless it already has the given content and lists it.
+     *
+     * @param file       the file
+     * @param content    the content
+     * @param source     the template the file is generated from, relative to the input directory, or "-"
+     * @param sourceHash the hash of the template source or "-"
+     * @param compiler   the compiler signature
+     * @param includes   the included templates
+     * @param previous   the manifest of the previous run or null
+     * @return true if the file was written
+     * @throws IOException on read or write errors
+     */
+    boolean write(Path file, byte[] content, String source, String sourceHash, String compiler,
+                  Collection<String> includes, Manifest previous) throws IOException {
+        String contentHash = hash(content);
+
+        // the content is only compared if the file isn't known to have it already
+        boolean written = !isKnown(file, contentHash, previous) && Temporize.writeIfChanged(file, content);
+
+        record(file, source, sourceHash, compiler, includes, contentHash);
+        return written;
+    }
+
+    /**
+     * Moves a staged file into place unless the file already has the same content and lists it.
+     *
+     * @param staged      the staged file
+     * @param file        the file
+     * @param contentHash the hash of the staged content
+     * @param source      the template the file is generated from, relative to the input directory, or "-"
+     * @param sourceHash  the hash of the template source or "-"
+     * @param compiler    the compiler signature
+     * @param includes    the included templates
+     * @param previous    the manifest of the previous run or null
+     * @return true if the file was replaced
+     * @throws IOException on read or write errors
+     */
+    boolean move(Path staged, Path file, String contentHash, String source, String sourceHash, String compiler,
+                 Collection<String> includes, Manifest previous) throws IOException {
+        boolean written = false;
+
+        if (!isKnown(file, contentHash, previous)
+                && !(Files.isRegularFile(file)
+                && Files.size(file) == Files.size(staged)
+                && Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(staged)))) {
+            moveAtomically(staged, file);
+            written = true;
+        }
+
+        record(file, source, sourceHash, compiler, includes, contentHash);
+        return written;
+    }
+
+    /**
+     * @return true if the previous manifest lists the file with the given content and the file is unchanged since
+     */
+    private static boolean isKnown(Path file, String contentHash, Manifest previous) throws IOException {
+        Entry known = previous != null ? previous.get(file) : null;
+        return known != null && known.contentHash.equals(contentHash) && known.isUnchanged(file);
+    }
+
+    private void record(Path file, String source, String sourceHash, String compiler, Collection<String> includes,
+                        String contentHash) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        keep(new Entry(relativize(file), source, sourceHash, compiler, new ArrayList<>(includes), contentHash,
+                attributes.size(), attributes.lastModifiedTime().toMillis()));
+    }
+
+    /**
+     * Replaces a file by another one on the same file system, atomically if the file system supports it.
+     *
+     * @param from the new file
+     * @param to   the file to replace
+     * @throws IOException on write errors
+     */
+    static void moveAtomically(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Replaces the manifest file atomically.
+     *
+     * @throws IOException on write errors
+     */
+    void save() throws IOException {
+        Path temp = Files.createTempFile(directory, FILE_NAME, ".tmp");
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(MAGIC);
+                writer.write("\n");
+
+                for (Entry entry : entries.values()) {
+                    writer.write(String.join("\t", entry.path, entry.source, entry.sourceHash, entry.compiler,
+                            String.join(" ", entry.includes), entry.contentHash,
+                            String.valueOf(entry.size), String.valueOf(entry.modified)));
+                    writer.write("\n");
+                }
+            }
+
+            moveAtomically(temp, directory.resolve(FILE_NAME));
+
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static String hash(byte[] content) {
+        try {
+            return Hexer.getHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static class Entry {
+
+        final String path;
+        final String source;
+        final String sourceHash;
+        final String compiler;
+        final List<String> includes;
+        final String contentHash;
+        final long size;
+        final long modified;
+
+        Entry(String path, String source, String sourceHash, String compiler, List<String> includes,
+              String contentHash, long size, long modified) {
+            this.path = path;
+            this.source = source;
+            this.sourceHash = sourceHash;
+            this.compiler = compiler;
+            this.includes = includes;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * @param file the file of the entry
+         * @return true if the file still has the size and modification time it was written with
+         * @throws IOException on read errors
+         */
+        boolean isUnchanged(Path file) throws IOException {
+            BasicFileAttributes attributes;
+
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+
+            return attributes.isRegularFile() && attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package net.h34t.temporize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs optimization passes on the syntax tree between the {@link ASTBuilder} and the {@link Compiler}.
+ */
+public class Optimizer {
+
+    /**
+     * Removes conditionals nested in a conditional on the same value, whose outcome is known.
+     */
+    public static final ASTPass DEAD_BRANCHES = new DeadBranches();
+
+    /**
+     * Silences blocks and conditionals that render nothing and replaces conditionals whose branches render the same
+     * text by that text.
+     */
+    public static final ASTPass FOLD_CONSTANTS = new FoldConstants();
+
+    /**
+     * Merges adjacent constants into one.
+     */
+    public static final ASTPass MERGE_CONSTANTS = new MergeConstants();
+
+    public static final List<ASTPass> DEFAULT_PASSES = Collections.unmodifiableList(Arrays.asList(
+            DEAD_BRANCHES, FOLD_CONSTANTS, MERGE_CONSTANTS));
+
+    private final List<ASTPass> passes;
+
+    public Optimizer() {
+        this(DEFAULT_PASSES);
+    }
+
+    public Optimizer(List<ASTPass> passes) {
+        this.passes = new ArrayList<>(passes);
+    }
+
+    /**
+     * @param ast    the tree
+     * @param report receives a line per pass that changed the tree, with the number of nodes and render statements
+     *               before and after it
+     * @return the optimized tree
+     */
+    public CompactAST optimize(CompactAST ast, Consumer<String> report) {
+        for (ASTPass pass : passes) {
+            int nodes = ast.size();
+            int statements = countStatements(ast);
+
+            ast = pass.apply(ast);
+
+            int optimizedStatements = countStatements(ast);
+            if (ast.size() != nodes || optimizedStatements != statements)
+                report.accept(String.format("%s: %d -> %d nodes, %d -> %d render statements",
+                        pass.getName(), nodes, ast.size(), statements, optimizedStatements));
+        }
+
+        return ast;
+    }
+
+    /**
+     * @param ast the tree
+     * @return the number of statements that render something, in all classes of the template
+     */
+    static int countStatements(CompactAST ast) {
+        int statements = 0;
+
+        for (int node = 0; node < ast.size(); node++) {
+            if (ast.isSilent(node))
+                node = ast.end(node) - 1;
+            else if (ast.kind(node) != CompactAST.CONDITIONAL)
+                statements++;
+        }
+
+        return statements;
+    }
+
+    static class DeadBranches implements ASTPass {
+
+        @Override
+        public String getName() {
+            return "dead-branches";
+        }
+
+        @Override
+        public CompactAST apply(CompactAST ast) {
+            return new ASTRewriter(ast) {
+                @Override
+                int visit(int node) {
+                    if (ast.kind(node) != CompactAST.CONDITIONAL || ast.isSilent(node))
+                        return keep(node);
+
+                    // look for an enclosing conditional on the same value in the same class
+                    for (Frame frame : frames) {
+                        if (ast.kind(frame.node) == CompactAST.BLOCK)
+                            break;
+
+                        if (ast.name(frame.node).equals(ast.name(node)))
+                            return inline(node, frame.alternative);
+                    }
+
+                    return keep(node);
+                }
+            }.rewrite();
+        }
+    }
+
+    static class FoldConstants implements ASTPass {
+
+        @Override
+        public String getName() {
+            return "fold-constants";
+        }
+
+        @Override
+        public CompactAST apply(CompactAST ast) {
+            int size = ast.size();
+
+            // whether a node renders anything, and the text that conditionals always render, from the last node to
+            // the first, so children are done before their parents
+            boolean[] renders = new boolean[size];
+            String[] texts = new String[size];
+
+            for (int node = size - 1; node >= 0; node--) {
+                if (ast.isSilent(node))
+                    continue;
+
+                switch (ast.kind(node)) {
+                    case CompactAST.CONSTANT:
+                        renders[node] = !ast.value(node).isEmpty();
+                        break;
+
+                    case CompactAST.VARIABLE:
+                    case CompactAST.INCLUDE:
+                        renders[node] = true;
+                        break;
+
+                    case CompactAST.BLOCK:
+                        for (int child = node + 1; child < ast.end(node) && !renders[node]; child = ast.end(child))
+                            renders[node] = renders[child];
+                        break;
+
+                    case CompactAST.CONDITIONAL:
+                        String consequent = text(ast, node + 1, ast.consequentEnd(node), renders, texts);
+                        String alternative = ast.alternative(node) >= 0
+                                ? text(ast, ast.alternative(node), ast.end(node), renders, texts)
+                                : "";
+
+                        if (consequent != null && consequent.equals(alternative)) {
+                            texts[node] = consequent;
+                            renders[node] = !consequent.isEmpty();
+                        } else {
+                            renders[node] = true;
+                        }
+                }
+            }
+
+            return new ASTRewriter(ast) {
+                @Override
+                int visit(int node) {
+                    byte kind = ast.kind(node);
+
+                    if ((kind == CompactAST.BLOCK || kind == CompactAST.CONDITIONAL) && !ast.isSilent(node)) {
+                        if (!renders[node] || texts[node] != null) {
+                            if (renders[node])
+                                builder.constant(texts[node]);
+
+                            builder.copy(ast, node, true);
+                            return ast.end(node);
+                        }
+                    }
+
+                    if (kind == CompactAST.CONSTANT && ast.value(node).isEmpty())
+                        return ast.end(node);
+
+                    return keep(node);
+                }
+            }.rewrite();
+        }
+
+        /**
+         * @return the text the nodes in the range always render, null if it depends on values
+         */
+        private static String text(CompactAST ast, int from, int to, boolean[] renders, String[] texts) {
+            StringBuilder text = new StringBuilder();
+
+            for (int node = from; node < to; node = ast.end(node)) {
+                if (!renders[node])
+                    continue;
+
+                if (ast.kind(node) == CompactAST.CONSTANT)
+                    text.append(ast.value(node));
+                else if (texts[node] != null)
+                    text.append(texts[node]);
+                else
+                    return null;
+            }
+
+            return text.toString();
+        }
+    }
+
+    static class MergeConstants implements ASTPass {
+
+        @Override
+        public String getName() {
+            return "merge-constants";
+        }
+
+        @Override
+        public CompactAST apply(CompactAST ast) {
+            return new ASTRewriter(ast) {
+                @Override
+                int visit(int node) {
+                    if (ast.kind(node) != CompactAST.CONSTANT)
+                        return keep(node);
+
+                    // silent nodes don't render anything, so constants on both sides of them are adjacent
+                    int end = branchEnd();
+                    int next = ast.end(node);
+                    StringBuilder text = new StringBuilder(ast.value(node));
+                    List<Integer> silent = new ArrayList<>();
+
+                    for (; next < end && (ast.kind(next) == CompactAST.CONSTANT || ast.isSilent(next)); next = ast.end(next)) {
+                        if (ast.isSilent(next))
+                            silent.add(next);
+                        else
+                            text.append(ast.value(next));
+                    }
+
+                    builder.constant(text.toString());
+
+                    for (int s : silent)
+                        builder.copy(ast, s, false);
+
+                    return next;
+                }
+            }.rewrite();
+        }
+    }
+}
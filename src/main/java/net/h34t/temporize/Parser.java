@@ -1,22 +1,22 @@
 package net.h34t.temporize;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.function.Consumer;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
-import java.util.stream.Collectors;
 
 public class Parser {
 
@@ -33,26 +33,27 @@ public class Parser {
             TokenCreator.Comment.getCreator(),
     });
 
-    private final TokenCreator[] creators;
+    private static final TokenCreator SKIP_END = TokenCreator.SkipEnd.getCreator();
+
+    private static final TokenCreator COMMENT_END = TokenCreator.CommentEnd.getCreator();
 
     /**
-     * A skip section is active (i.e. a {skip} token has been found;
-     * all other tokens are ignored except for the skipEnd ({/skip}) and converted to literals.
+     * The dispatch slot for all characters outside of 7 bit ASCII.
      */
-    private boolean skip;
+    private static final int OTHER = 128;
+
+    private final TokenCreator[] creators;
 
     /**
-     * A comment section is active (i.e. a {comment} token has been found;
-     * all other tokens are ignored except for the commentEnd ({/comment}) and converted to literals.
-     * While the comment section is active, no literal sections will be added.
+     * The indices of the creators worth trying at a brace, by the character following it.
      */
-    private boolean comment;
+    private final int[][] dispatch;
 
     public Parser(TokenCreator[] creators) {
         this.creators = creators;
+        this.dispatch = createDispatch(creators);
     }
 
-
     /**
      * Parses the contents of a File into a list of tokens
      *
@@ -61,7 +62,7 @@ public class Parser {
      * @throws IOException on read errors or if the File doesn't exist
      */
     public ParseResult parse(File file) throws IOException {
-        return parse(file.getName(), new FileInputStream(file));
+        return parse(file.getName(), ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
     }
 
     /**
@@ -72,7 +73,7 @@ public class Parser {
      * @throws IOException on read errors or if the File doesn't exist
      */
     public ParseResult parse(Path path) throws IOException {
-        return parse(path.toAbsolutePath().toString(), Files.newInputStream(path));
+        return parse(path.toAbsolutePath().toString(), ByteBuffer.wrap(Files.readAllBytes(path)));
     }
 
     /**
@@ -83,7 +84,7 @@ public class Parser {
      * @throws IOException on read errors
      */
     public ParseResult parse(String contents) throws IOException {
-        return parse("?string", new ByteArrayInputStream(contents.getBytes()));
+        return parse("?string", ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -106,31 +107,127 @@ public class Parser {
      * @throws IOException on read errors
      */
     protected ParseResult parse(String source, InputStream is) throws IOException {
-        MessageDigest digest;
+        try (InputStream in = is) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; )
+                os.write(buffer, 0, n);
+
+            return parse(source, ByteBuffer.wrap(os.toByteArray()));
+        }
+    }
+
+    /**
+     * Parses the UTF-8 encoded source of a template into a list of tokens.
+     *
+     * @param source the name of the source
+     * @param bytes  the encoded template
+     * @return the list of tokens
+     */
+    protected ParseResult parse(String source, ByteBuffer bytes) {
+        List<Token> tokens = new ArrayList<>();
+        return new ParseResult(tokens, parse(source, bytes, tokens::add));
+    }
+
+    /**
+     * Parses the contents of a java.nio.Path, passing every token to the consumer as soon as it's complete.
+     *
+     * @param path     the File to read
+     * @param consumer the consumer of the tokens
+     * @return the hash of the template source, see {@link ParseResult#getHash()}
+     * @throws IOException on read errors or if the File doesn't exist
+     */
+    public byte[] parse(Path path, Consumer<Token> consumer) throws IOException {
+        return parse(path.toAbsolutePath().toString(), ByteBuffer.wrap(Files.readAllBytes(path)), consumer);
+    }
+
+    /**
+     * Parses a String, passing every token to the consumer as soon as it's complete.
+     *
+     * @param contents the String to parse
+     * @param consumer the consumer of the tokens
+     * @return the hash of the template source, see {@link ParseResult#getHash()}
+     */
+    public byte[] parse(String contents, Consumer<Token> consumer) {
+        return parse("?string", ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8)), consumer);
+    }
+
+    /**
+     * Parses the UTF-8 encoded source of a template, passing every token to the consumer as soon as it's complete.
+     * <p>
+     * The source is hashed and decoded as a whole and then scanned in a single pass, so tokens may span lines, e.g.
+     * an include with its arguments on separate lines. Line breaks are normalized to <code>\n</code> and a final
+     * line break is dropped, like every line ending of a template read line by line.
+     * <p>
+     * Comments are dropped and consecutive literals are joined while scanning, so only the literal in progress is
+     * held back.
+     *
+     * @param source   the name of the source
+     * @param bytes    the encoded template
+     * @param consumer the consumer of the tokens
+     * @return the hash of the template source
+     */
+    protected byte[] parse(String source, ByteBuffer bytes, Consumer<Token> consumer) {
+        MessageDigest digest = createDigest();
+        digest.update(bytes.duplicate());
+
+        CharBuffer text = normalize(StandardCharsets.UTF_8.decode(bytes));
+
+        Joiner joiner = new Joiner(consumer);
+        scan(text, source, new LineIndex(text, 1), new State(creators.length), joiner);
+        joiner.flush();
+
+        return digest.digest();
+    }
+
+    /**
+     * Calculates the same hash as {@link ParseResult#getHash()} without parsing the file.
+     *
+     * @param path the template file
+     * @return the hash of the template source
+     * @throws IOException on read errors or if the File doesn't exist
+     */
+    public static byte[] hash(Path path) throws IOException {
+        return createDigest().digest(Files.readAllBytes(path));
+    }
+
+    private static MessageDigest createDigest() {
         try {
-            digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
+    }
 
-        List<Token> tokens = new ArrayList<>();
-
-        try (LineNumberReader reader = new LineNumberReader(new InputStreamReader(is))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                digest.update(line.getBytes());
-                tokens.addAll(parseLine(line + (reader.ready() ? "\n" : ""), source, reader.getLineNumber()));
+    /**
+     * Replaces <code>\r\n</code> and <code>\r</code> line breaks by <code>\n</code> in place and drops the final
+     * line break.
+     *
+     * @param text the decoded template
+     * @return the normalized text
+     */
+    private static CharBuffer normalize(CharBuffer text) {
+        char[] chars = text.array();
+        int from = text.arrayOffset() + text.position();
+        int to = text.arrayOffset() + text.limit();
+        int length = from;
+
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+
+            if (c == '\r') {
+                c = '\n';
+                if (i + 1 < to && chars[i + 1] == '\n')
+                    i++;
             }
 
-            // remove comment tokens
-            tokens = tokens.stream()
-                    .filter(token -> !(token instanceof Token.Comment))
-                    .collect(Collectors.toList());
+            chars[length++] = c;
+        }
 
+        if (length > from && chars[length - 1] == '\n')
+            length--;
 
-            // join consecutive literal tokens
-            return new ParseResult(join(tokens), digest.digest());
-        }
+        return CharBuffer.wrap(chars, from, length - from).slice();
     }
 
     /**
@@ -146,9 +243,7 @@ public class Parser {
     }
 
     /**
-     * The actual parsing method. Returns all tokens found in a single line.
-     * <p>
-     * TODO parsing is doing a lot of unnecessary work by searching for every token and using only the first one
+     * Parses a single line on its own, i.e. outside of any skip or comment section.
      *
      * @param line       the line to be parsed
      * @param source     the source identifier for debugging and error reporting purposes
@@ -158,115 +253,305 @@ public class Parser {
     protected List<Token> parseLine(String line, String source, int lineNumber) {
         List<Token> tokens = new ArrayList<>();
 
+        Joiner joiner = new Joiner(tokens::add);
+        scan(line, source, new LineIndex(line, lineNumber), new State(creators.length), joiner);
+        joiner.flush();
+
+        return tokens;
+    }
+
+    /**
+     * The actual parsing method. Returns all tokens found in the text.
+     * <p>
+     * The text is scanned once: only the positions of opening braces are inspected, and only the creators whose
+     * prefix starts with the character following the brace are run, anchored at the brace. The first creator (in
+     * the order they were given) that matches wins.
+     * <p>
+     * Tokens get the line and column they start at. Literals get the line they end on, like literals joined from
+     * several lines.
+     *
+     * @param text   the text to be parsed
+     * @param source the source identifier for debugging and error reporting purposes
+     * @param lines  the line index of the text
+     * @param state  the state of the current parse run
+     * @param tokens the receiver of the tokens
+     */
+    private void scan(CharSequence text, String source, LineIndex lines, State state, Joiner tokens) {
+        state.reset(text);
+
         int offs = 0;
 
         while (true) {
-            TokenMatchResult nextToken = null;
+            TokenMatchResult nextToken;
 
-            if (skip) {
-                TokenCreator c = TokenCreator.SkipEnd.getCreator();
-                Matcher matcher = c.getPattern().matcher(line);
-                if (matcher.find(offs)) {
-                    nextToken = new TokenMatchResult(matcher.toMatchResult(), c, matcher.start(), matcher.end());
-                }
+            if (state.skip) {
+                nextToken = find(text, offs, SKIP_END);
 
-            } else if (comment) {
-                TokenCreator c = TokenCreator.CommentEnd.getCreator();
-                Matcher matcher = c.getPattern().matcher(line);
-                if (matcher.find(offs)) {
-                    nextToken = new TokenMatchResult(matcher.toMatchResult(), c, matcher.start(), matcher.end());
-                }
+            } else if (state.comment) {
+                nextToken = find(text, offs, COMMENT_END);
 
             } else {
-                // find the next token
-                for (TokenCreator c : creators) {
-                    Matcher matcher = c.getPattern().matcher(line);
-
-                    if (matcher.find(offs)) {
-                        if (nextToken == null || nextToken.start > matcher.start()) {
-                            nextToken = new TokenMatchResult(matcher.toMatchResult(), c, matcher.start(), matcher.end());
-                        }
-                    }
-                }
+                nextToken = find(text, offs, state.matchers);
             }
 
             if (nextToken != null) {
                 // add a literal token from the current parsing position
                 // to the beginning of the next token
-                if (!comment)
-                    tokens.add(new Token.Literal(line.substring(offs, nextToken.start), source, lineNumber, offs));
+                if (!state.comment)
+                    tokens.literal(text, offs, nextToken.start, source, lines, state.skip);
 
-                Token token = nextToken.create(source, lineNumber);
+                Token token = nextToken.create(source, lines);
 
                 if (token instanceof Token.Skip) {
-                    skip = true;
+                    state.skip = true;
 
-                } else if (skip && token instanceof Token.SkipEnd) {
-                    skip = false;
+                } else if (state.skip && token instanceof Token.SkipEnd) {
+                    state.skip = false;
 
                 } else if (token instanceof Token.Comment) {
-                    comment = true;
+                    state.comment = true;
 
-                } else if (comment && token instanceof Token.CommentEnd) {
-                    comment = false;
+                } else if (state.comment && token instanceof Token.CommentEnd) {
+                    state.comment = false;
 
                 } else {
-                    tokens.add(token);
+                    tokens.accept(token);
                 }
 
                 offs = nextToken.end;
 
             } else {
-                // no more tokens found on this line
+                // no more tokens found
                 break;
             }
         }
 
         // if no more tokens can be found the remainder of the input must be a literal
-        if (!comment)
-            tokens.add(new Token.Literal(line.substring(offs), source, lineNumber, offs));
+        if (!state.comment)
+            tokens.literal(text, offs, text.length(), source, lines, state.skip);
+    }
 
-        return tokens;
+    /**
+     * Finds the first token starting at or after offs.
+     *
+     * @param text     the text to search
+     * @param offs     the position to start searching from
+     * @param matchers the matcher cache, indexed like {@link #creators}
+     * @return the first match or null if there is none
+     */
+    private TokenMatchResult find(CharSequence text, int offs, Matcher[] matchers) {
+        int pos = offs;
+
+        while ((pos = indexOf(text, '{', pos)) >= 0) {
+            int[] candidates = dispatch[pos + 1 < text.length() ? slot(text.charAt(pos + 1)) : OTHER];
+
+            for (int c : candidates) {
+                TokenCreator creator = creators[c];
+
+                if (!startsWith(text, creator.getPrefix(), pos))
+                    continue;
+
+                if (matchers[c] == null)
+                    matchers[c] = creator.getPattern().matcher(text);
+
+                Matcher matcher = matchers[c].region(pos, text.length());
+                if (matcher.lookingAt())
+                    return new TokenMatchResult(matcher, creator, matcher.start(), matcher.end());
+            }
+
+            pos++;
+        }
+
+        return null;
     }
 
     /**
-     * Joins two consecutive LiteralTokens into one LiteralToken to reduce
-     * method calls later on. A side effect is that line numbers aren't exact anymore because the joined token has
-     * either the line number of the first one or the second one.
-     * <p>
-     * This could be prevented by implementing fromLine-toLine instead of just line, but it's probably not worth it.
+     * Finds the first match of a single creator, used for the end tags of skip and comment sections.
      *
-     * @param tokens the list of tokens
-     * @return a list of tokens where consecutive literals are joined together
+     * @param text    the text to search
+     * @param offs    the position to start searching from
+     * @param creator the creator to match
+     * @return the first match or null if there is none
      */
-    private List<Token> join(List<Token> tokens) {
-        Stack<Token> joinedToken = new Stack<>();
-
-        for (Token token : tokens) {
-            if (!token.contents.isEmpty()) {
-                if (joinedToken.isEmpty()) {
-                    joinedToken.push(token);
-
-                } else if (joinedToken.peek() instanceof Token.Literal && token instanceof Token.Literal) {
-                    // If both are literals, they can be joined. The line number is taken from the lower one.
-                    Token top = joinedToken.pop();
-                    joinedToken.push(new Token.Literal(
-                            top.contents + token.contents,
-                            token.source,
-                            token.line,
-                            top.offs));
+    private static TokenMatchResult find(CharSequence text, int offs, TokenCreator creator) {
+        String prefix = creator.getPrefix();
+        int pos = offs;
+        Matcher matcher = null;
+
+        while ((pos = indexOf(text, '{', pos)) >= 0) {
+            if (startsWith(text, prefix, pos)) {
+                if (matcher == null)
+                    matcher = creator.getPattern().matcher(text);
+
+                matcher.region(pos, text.length());
+                if (matcher.lookingAt())
+                    return new TokenMatchResult(matcher, creator, matcher.start(), matcher.end());
+            }
 
-                } else {
-                    joinedToken.push(token);
-                }
+            pos++;
+        }
+
+        return null;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from, length = text.length(); i < length; i++)
+            if (text.charAt(i) == c)
+                return i;
+
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int pos) {
+        if (pos + prefix.length() > text.length())
+            return false;
+
+        for (int i = 0; i < prefix.length(); i++)
+            if (text.charAt(pos + i) != prefix.charAt(i))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Groups the creators by the character following the opening brace of their prefix.
+     * Creators without such a character end up in every group.
+     *
+     * @param creators the creators
+     * @return the indices of the candidate creators for every slot
+     */
+    private static int[][] createDispatch(TokenCreator[] creators) {
+        int[][] dispatch = new int[OTHER + 1][];
+
+        for (int slot = 0; slot <= OTHER; slot++) {
+            List<Integer> candidates = new ArrayList<>();
+
+            for (int i = 0; i < creators.length; i++) {
+                String prefix = creators[i].getPrefix();
+
+                if (prefix.length() < 2 || slot(prefix.charAt(1)) == slot)
+                    candidates.add(i);
+            }
+
+            dispatch[slot] = candidates.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        return dispatch;
+    }
+
+    private static int slot(char c) {
+        return c < OTHER ? c : OTHER;
+    }
+
+    /**
+     * Joins consecutive literals into one literal to reduce method calls later on and drops comments and empty
+     * tokens before passing the tokens on. A side effect is that line numbers aren't exact anymore because the
+     * joined literal has the line number of the last part and the column of the first one.
+     * <p>
+     * Literals of skip sections are only joined with each other, so they can still be told apart, e.g. by the
+     * {@link WhitespaceCompactor}.
+     */
+    private static class Joiner implements Consumer<Token> {
+
+        private final Consumer<Token> consumer;
+
+        /**
+         * The contents of the literal in progress.
+         */
+        private final StringBuilder contents = new StringBuilder();
+
+        private String source;
+        private int line;
+        private int offs;
+        private boolean verbatim;
+
+        Joiner(Consumer<Token> consumer) {
+            this.consumer = consumer;
+        }
+
+        void literal(CharSequence text, int start, int end, String source, LineIndex lines, boolean verbatim) {
+            literal(text, start, end, source, lines.line(Math.max(start, end - 1)), lines.column(start), verbatim);
+        }
+
+        private void literal(CharSequence text, int start, int end, String source, int line, int offs, boolean verbatim) {
+            if (start == end)
+                return;
+
+            if (contents.length() > 0 && this.verbatim != verbatim)
+                flush();
+
+            if (contents.length() == 0) {
+                this.offs = offs;
+                this.verbatim = verbatim;
+            }
+
+            contents.append(text, start, end);
+            this.source = source;
+            this.line = line;
+        }
+
+        @Override
+        public void accept(Token token) {
+            if (token instanceof Token.Literal) {
+                literal(token.contents, 0, token.contents.length(), token.source, token.line, token.offs,
+                        ((Token.Literal) token).verbatim);
+
+            } else if (!(token instanceof Token.Comment) && !token.contents.isEmpty()) {
+                flush();
+                consumer.accept(token);
             }
         }
 
-        return joinedToken;
+        /**
+         * Passes on the literal in progress.
+         */
+        void flush() {
+            if (contents.length() > 0) {
+                consumer.accept(new Token.Literal(contents.toString(), source, line, offs, verbatim));
+                contents.setLength(0);
+            }
+        }
     }
 
     /**
-     * Represents a match result by a certain TokenCreator.
+     * The mutable state of a single parse run. Keeping it out of the parser allows using the same parser, e.g.
+     * {@link #FULL}, from several threads at once.
+     */
+    private static class State {
+
+        /**
+         * Matchers of the creators, created on demand.
+         */
+        final Matcher[] matchers;
+
+        /**
+         * A skip section is active (i.e. a {skip} token has been found;
+         * all other tokens are ignored except for the skipEnd ({/skip}) and converted to literals.
+         */
+        boolean skip;
+
+        /**
+         * A comment section is active (i.e. a {comment} token has been found;
+         * all other tokens are ignored except for the commentEnd ({/comment}) and converted to literals.
+         * While the comment section is active, no literal sections will be added.
+         */
+        boolean comment;
+
+        State(int creators) {
+            this.matchers = new Matcher[creators];
+        }
+
+        void reset(CharSequence text) {
+            for (Matcher matcher : matchers)
+                if (matcher != null)
+                    matcher.reset(text);
+        }
+    }
+
+    /**
+     * Represents a match result by a certain TokenCreator. It refers to the matcher instead of a copy made by
+     * {@link Matcher#toMatchResult()}, which copies the whole template for every token, so it must be used before
+     * the next search.
      */
     private static class TokenMatchResult {
 
@@ -282,8 +567,8 @@ public class Parser {
             this.end = end;
         }
 
-        public Token create(String source, int lineNumber) {
-            return creator.create(matchResult, source, lineNumber);
+        public Token create(String source, LineIndex lines) {
+            return creator.create(new LineMatchResult(matchResult, lines.start(start)), source, lines.line(start));
         }
 
         @Override
@@ -292,4 +577,108 @@ public class Parser {
         }
     }
 
+    /**
+     * The start positions of the lines of a text, to turn positions into lines and columns.
+     */
+    private static class LineIndex {
+
+        private final int firstLine;
+        private int[] starts = new int[16];
+        private int count;
+
+        LineIndex(CharSequence text, int firstLine) {
+            this.firstLine = firstLine;
+            add(0);
+
+            for (int i = 0, length = text.length(); i < length; i++)
+                if (text.charAt(i) == '\n')
+                    add(i + 1);
+        }
+
+        private void add(int start) {
+            if (count == starts.length)
+                starts = Arrays.copyOf(starts, count * 2);
+
+            starts[count++] = start;
+        }
+
+        private int index(int pos) {
+            int i = Arrays.binarySearch(starts, 0, count, pos);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        /**
+         * @return the number of the line the position is on
+         */
+        int line(int pos) {
+            return firstLine + index(pos);
+        }
+
+        /**
+         * @return the start of the line the position is on
+         */
+        int start(int pos) {
+            return starts[index(pos)];
+        }
+
+        /**
+         * @return the position relative to the start of its line
+         */
+        int column(int pos) {
+            return pos - start(pos);
+        }
+    }
+
+    /**
+     * A match with its positions relative to the start of the line it starts on, which token creators take as the
+     * column of their token.
+     */
+    private static class LineMatchResult implements MatchResult {
+
+        private final MatchResult matchResult;
+        private final int lineStart;
+
+        LineMatchResult(MatchResult matchResult, int lineStart) {
+            this.matchResult = matchResult;
+            this.lineStart = lineStart;
+        }
+
+        @Override
+        public int start() {
+            return matchResult.start() - lineStart;
+        }
+
+        @Override
+        public int start(int group) {
+            int start = matchResult.start(group);
+            return start < 0 ? start : start - lineStart;
+        }
+
+        @Override
+        public int end() {
+            return matchResult.end() - lineStart;
+        }
+
+        @Override
+        public int end(int group) {
+            int end = matchResult.end(group);
+            return end < 0 ? end : end - lineStart;
+        }
+
+        @Override
+        public String group() {
+            return matchResult.group();
+        }
+
+        @Override
+        public String group(int group) {
+            return matchResult.group(group);
+        }
+
+        @Override
+        public int groupCount() {
+            return matchResult.groupCount();
+        }
+    }
+
 }
@@ -0,0 +1,114 @@
+package net.h34t.temporize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Describes one of the generated render methods, e.g. write(java.io.Writer): how its body writes constants, values
+ * and nested templates, and how to call helper methods when the body is split up.
+ */
+class RenderMethod {
+
+    /**
+     * The class the method belongs to, used for messages.
+     */
+    final String className;
+
+    /**
+     * The name of the method. Helper methods are named name$n.
+     */
+    final String name;
+
+    /**
+     * The parameter declarations of the helper methods, e.g. "java.io.Writer w".
+     */
+    final String parameters;
+
+    /**
+     * The arguments passed on to the helper methods, e.g. "w".
+     */
+    final String arguments;
+
+    /**
+     * The throws clause of the helper methods, if any.
+     */
+    final String exceptions;
+
+    /**
+     * Measuring methods sum up a length in the local variable n instead of writing; their helpers return it.
+     */
+    final boolean measuring;
+
+    /**
+     * The symbols of the class, which determine the conditions.
+     */
+    final SymbolTable symbols;
+
+    /**
+     * The modifiers declared as filters.
+     */
+    final Set<String> filters;
+
+    final Function<String, String> fnConstant;
+    final Function<String, String> fnOutput;
+    final Function<String, String> fnValue;
+
+    /**
+     * Takes a lambda chaining filters and the value they're applied to and creates a writing command.
+     */
+    final BiFunction<String, String, String> fnFiltered;
+    final Function<String, String> fnInclude;
+
+    /**
+     * The generated helper methods.
+     */
+    final List<String> helpers = new ArrayList<>();
+
+    RenderMethod(String className, String name, String parameters, String arguments, String exceptions,
+                 boolean measuring,
+                 SymbolTable symbols,
+                 Set<String> filters,
+                 Function<String, String> fnConstant,
+                 Function<String, String> fnOutput,
+                 Function<String, String> fnValue,
+                 BiFunction<String, String, String> fnFiltered,
+                 Function<String, String> fnInclude) {
+        this.className = className;
+        this.name = name;
+        this.parameters = parameters;
+        this.arguments = arguments;
+        this.exceptions = exceptions;
+        this.measuring = measuring;
+        this.symbols = symbols;
+        this.filters = filters;
+        this.fnConstant = fnConstant;
+        this.fnOutput = fnOutput;
+        this.fnValue = fnValue;
+        this.fnFiltered = fnFiltered;
+        this.fnInclude = fnInclude;
+    }
+
+    /**
+     * Adds a helper method.
+     *
+     * @param body   the body of the helper, indented by indent + 1
+     * @param indent the indentation of the method declaration
+     * @return the statement calling the helper
+     */
+    String addHelper(String body, int indent) {
+        String helper = name + "$" + helpers.size();
+
+        helpers.add(Ident.of(indent) + "private " + (measuring ? "int " : "void ") + helper + "(" + parameters + ")" + exceptions + " {\n"
+                + (measuring ? Ident.of(indent + 1) + "int n = 0;\n" : "")
+                + body
+                + (measuring ? Ident.of(indent + 1) + "return n;\n" : "")
+                + Ident.of(indent) + "}\n");
+
+        return measuring
+                ? "n += " + helper + "()"
+                : helper + "(" + arguments + ")";
+    }
+}
@@ -0,0 +1,213 @@
+package net.h34t.temporize;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The literals used by more than one generated class, i.e. by several templates or the nested classes of their
+ * blocks. They're stored once, UTF-8 encoded in a resource next to a generated holder class, instead of in the
+ * constant pool of every class. The holder keeps them pre-encoded like the literals of a template.
+ */
+class SharedLiterals {
+
+    /**
+     * The simple name of the holder class.
+     */
+    static final String CLASS_NAME = "TemporizeLiterals";
+
+    /**
+     * Shorter literals take less space in a constant pool than a reference to the holder.
+     */
+    static final int MIN_LENGTH = 16;
+
+    /**
+     * The offsets of the literals are initialized in the static initializer of the holder, which must stay below
+     * the 64 KB method limit.
+     */
+    static final int MAX_LITERALS = 4096;
+
+    private final String packageName;
+    private final LiteralBlob blob = new LiteralBlob();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    private long constantBytes;
+    private long encodedBytes;
+
+    private SharedLiterals(String packageName) {
+        this.packageName = packageName;
+    }
+
+    /**
+     * Selects the literals of the given templates which are used by more than one class, the ones saving the most
+     * bytes first.
+     *
+     * @param packageName          the package of the holder class
+     * @param templates            the syntax trees of the templates
+     * @param literalBlobThreshold the length above which literals are stored in the resource of their template
+     * @return the shared literals
+     */
+    static SharedLiterals select(String packageName, List<CompactAST> templates, int literalBlobThreshold) {
+        // the number of classes every literal is used in
+        Map<String, Integer> classes = new HashMap<>();
+
+        for (CompactAST ast : templates) {
+            // the scopes of the generated classes, i.e. the template and the bodies of its blocks
+            Deque<int[]> scopes = new ArrayDeque<>();
+            scopes.push(new int[]{0, ast.size()});
+
+            while (!scopes.isEmpty()) {
+                int[] scope = scopes.pop();
+                Set<String> literals = new HashSet<>();
+
+                ast.walkRendered(scope[0], scope[1], new ASTVisitor() {
+                    @Override
+                    public void constant(int node) {
+                        String value = ast.value(node);
+
+                        if (value.length() >= MIN_LENGTH && (literalBlobThreshold <= 0 || value.length() <= literalBlobThreshold))
+                            literals.add(value);
+                    }
+
+                    @Override
+                    public void block(int node) {
+                        scopes.push(new int[]{node + 1, ast.end(node)});
+                    }
+                });
+
+                literals.forEach(literal -> classes.merge(literal, 1, Integer::sum));
+            }
+        }
+
+        SharedLiterals shared = new SharedLiterals(packageName);
+
+        classes.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .sorted(Comparator.<Map.Entry<String, Integer>>comparingLong(e -> (long) (e.getValue() - 1) * utf8Length(e.getKey()))
+                        .reversed()
+                        .thenComparing(Map.Entry::getKey))
+                .limit(MAX_LITERALS)
+                .forEach(e -> {
+                    shared.indices.put(e.getKey(), shared.blob.add(e.getKey()));
+                    shared.constantBytes += (long) (e.getValue() - 1) * utf8Length(e.getKey());
+                    shared.encodedBytes += (long) (e.getValue() - 1) * (utf8Length(e.getKey()) + e.getKey().length());
+                });
+
+        return shared;
+    }
+
+    /**
+     * @param packageNames the packages of all templates
+     * @return the longest package all templates are in, or the package of TemporizeTemplate if there is none
+     */
+    static String getCommonPackage(List<String> packageNames) {
+        List<String> common = null;
+
+        for (String packageName : packageNames) {
+            List<String> parts = new ArrayList<>(Arrays.asList(packageName.split("\\.")));
+
+            if (common == null) {
+                common = parts;
+            } else {
+                int i = 0;
+                while (i < common.size() && i < parts.size() && common.get(i).equals(parts.get(i)))
+                    i++;
+
+                common = common.subList(0, i);
+            }
+        }
+
+        return common == null || common.isEmpty() ? "net.h34t.temporize" : String.join(".", common);
+    }
+
+    private static int utf8Length(String literal) {
+        return literal.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    boolean isEmpty() {
+        return indices.isEmpty();
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @return the fully qualified name of the holder class
+     */
+    String getClassName() {
+        return packageName + "." + CLASS_NAME;
+    }
+
+    /**
+     * @param literal a literal
+     * @return the index of the literal in the holder or -1 if it's not shared
+     */
+    int indexOf(String literal) {
+        return indices.getOrDefault(literal, -1);
+    }
+
+    /**
+     * Identifies the selection, so templates compiled against a different selection are compiled again.
+     *
+     * @return a hash of the package and the literals
+     */
+    String getSignature() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(packageName.getBytes(StandardCharsets.UTF_8));
+            digest.update(blob.toByteArray());
+
+            return Hexer.getHex(digest.digest()).substring(0, 16);
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the code of the holder class
+     */
+    String createSource() {
+        return "package " + packageName + ";\n\n"
+                + "import net.h34t.temporize.TemporizeTemplate;\n\n"
+                + "/**\n"
+                + " * The literals shared by the generated templates.\n"
+                + " */\n"
+                + "public final class " + CLASS_NAME + " {\n\n"
+                + "    public static final TemporizeTemplate.Literals LITERALS = new TemporizeTemplate.Blob("
+                + CLASS_NAME + ".class, \"" + CLASS_NAME + LiteralBlob.EXTENSION + "\","
+                + Arrays.stream(blob.offsets())
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(", ", "\n" + Ident.of(3), ").toLiterals();\n\n"))
+                + "    private " + CLASS_NAME + "() {\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * @return the content of the resource holding the literals
+     */
+    byte[] toByteArray() {
+        return blob.toByteArray();
+    }
+
+    /**
+     * @return a summary of the selection and the bytes it saves
+     */
+    String report() {
+        return String.format("Shared %d literals in %s, saving %d bytes of constants and %d bytes of pre-encoded literals",
+                indices.size(), getClassName(), constantBytes, encodedBytes);
+    }
+}
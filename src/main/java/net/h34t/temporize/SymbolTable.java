@@ -0,0 +1,91 @@
+package net.h34t.temporize;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * The values defined in the scope of a generated class, i.e. a template or the body of a block, collected in a
+ * single pass in document order.
+ */
+class SymbolTable {
+
+    final List<Integer> variables = new ArrayList<>();
+    final List<Integer> blocks = new ArrayList<>();
+    final List<Integer> includes = new ArrayList<>();
+    final List<Integer> conditionals = new ArrayList<>();
+
+    private final CompactAST ast;
+    private final Map<String, ConditionalType> types = new HashMap<>();
+
+    /**
+     * @param ast  the tree
+     * @param from the first node of the scope
+     * @param to   the end of the scope
+     */
+    SymbolTable(CompactAST ast, int from, int to) {
+        this.ast = ast;
+
+        ast.walk(from, to, new ASTVisitor() {
+            @Override
+            public void variable(int node) {
+                variables.add(node);
+                types.putIfAbsent(ast.name(node), ConditionalType.STRING);
+            }
+
+            @Override
+            public void block(int node) {
+                blocks.add(node);
+                types.putIfAbsent(ast.name(node), ConditionalType.BLOCK);
+            }
+
+            @Override
+            public void include(int node) {
+                includes.add(node);
+                types.putIfAbsent(ast.instance(node), ConditionalType.INCLUDE);
+            }
+
+            @Override
+            public void enterConditional(int node) {
+                conditionals.add(node);
+            }
+        });
+    }
+
+    /**
+     * @param name the name of a conditional
+     * @return the type of value the conditional checks, depending on what else the name is used for in the scope
+     */
+    ConditionalType getType(String name) {
+        return types.getOrDefault(name, ConditionalType.BOOLEAN);
+    }
+
+    /**
+     * @return the field names of the variables, sorted
+     */
+    Set<String> getVariableNames() {
+        return variables.stream()
+                .map(v -> Utils.normalizeVarName(ast.name(v)))
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * @return the names of the conditionals that check a boolean value of their own, i.e. which aren't variables,
+     * blocks or includes as well, in document order
+     */
+    List<String> getConditionalValues() {
+        Set<String> values = getVariableNames();
+        blocks.forEach(b -> values.add(Utils.normalizeVarName(ast.name(b))));
+        includes.forEach(i -> values.add(Utils.normalizeVarName(ast.instance(i))));
+
+        return conditionals.stream()
+                .map(ast::name)
+                .filter(c -> !values.contains(c))
+                .distinct()
+                .collect(Collectors.toList());
+    }
+}
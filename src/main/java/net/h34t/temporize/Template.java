@@ -6,10 +6,21 @@ public class Template {
     public final String packageName;
     public final String code;
 
+    /**
+     * The content of the resource holding the large literals, which must be stored next to the class as
+     * [className].literals, or null if all literals are in the code.
+     */
+    public final byte[] literals;
+
     public Template(String packageName, String className, String code) {
+        this(packageName, className, code, null);
+    }
+
+    public Template(String packageName, String className, String code, byte[] literals) {
         this.className = className;
         this.packageName = packageName;
         this.code = code;
+        this.literals = literals;
     }
 
     @Override
@@ -100,4 +100,12 @@ public class TemplateFile {
     public Path getOutputFile(Path outputBase) {
         return getOutputDirectory(outputBase).resolve(getClassName() + ".java");
     }
+
+    /**
+     * @param outputBase the src directory where to store the java files
+     * @return the path of the resource holding the large literals of the template
+     */
+    public Path getLiteralsFile(Path outputBase) {
+        return getOutputDirectory(outputBase).resolve(getClassName() + LiteralBlob.EXTENSION);
+    }
 }
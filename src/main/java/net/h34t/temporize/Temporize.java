@@ -1,31 +1,203 @@
 package net.h34t.temporize;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Temporize {
 
+    /**
+     * Identifies the code generator in the headers of generated files. Incremental builds recompile every template
+     * that was generated by a different version, so this must be changed whenever the generated code changes.
+     */
+    static final String COMPILER_VERSION = "1.1.3-24";
+
     private Log log;
 
+    private boolean incremental;
+
+    private int threads = 1;
+
+    private int methodSizeLimit = Compiler.DEFAULT_METHOD_SIZE_LIMIT;
+
+    private int literalBlobThreshold = Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD;
+
+    private boolean optimize = true;
+
+    private List<String> compactWhitespace = Collections.emptyList();
+
+    private boolean sharedLiterals;
+
+    private boolean staging;
+
+    private ClassLoader modifierClassLoader;
+
+    /**
+     * @param threads the number of threads used to compile templates; values below 1 use one thread per
+     *                available processor
+     * @return this
+     */
+    public Temporize setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param methodSizeLimit the estimated bytecode size above which generated render methods are split into
+     *                        helper methods, 0 disables splitting
+     * @return this
+     */
+    public Temporize setMethodSizeLimit(int methodSizeLimit) {
+        this.methodSizeLimit = methodSizeLimit;
+        return this;
+    }
+
+    /**
+     * @param literalBlobThreshold the length above which literals are stored in a [className].literals resource
+     *                             next to the generated class, 0 keeps all literals in the code
+     * @return this
+     */
+    public Temporize setLiteralBlobThreshold(int literalBlobThreshold) {
+        this.literalBlobThreshold = literalBlobThreshold;
+        return this;
+    }
+
+    /**
+     * @param optimize true to run the {@link Optimizer} on every template, which merges constants and removes
+     *                 sections that render nothing
+     * @return this
+     */
+    public Temporize setOptimize(boolean optimize) {
+        this.optimize = optimize;
+        return this;
+    }
+
+    /**
+     * @param suffixes the file name suffixes of templates whose literals are compacted by the
+     *                 {@link WhitespaceCompactor}, e.g. ".temporize.html"
+     * @return this
+     */
+    public Temporize setCompactWhitespace(Collection<String> suffixes) {
+        this.compactWhitespace = new ArrayList<>(suffixes);
+        return this;
+    }
+
+    /**
+     * In shared literals mode, literals used by more than one generated class are stored once in a generated
+     * TemporizeLiterals class, see {@link SharedLiterals}. All templates are parsed in every run to find them.
+     *
+     * @param sharedLiterals true to share literals between templates
+     * @return this
+     */
+    public Temporize setSharedLiterals(boolean sharedLiterals) {
+        this.sharedLiterals = sharedLiterals;
+        return this;
+    }
+
+    /**
+     * In staging mode every compiled template is written to a temporary directory next to the output directory
+     * right away instead of being kept in memory. The staged files are moved into the output directory only after
+     * all templates compiled and all includes were found.
+     *
+     * @param staging true to stage the generated files
+     * @return this
+     */
+    public Temporize setStaging(boolean staging) {
+        this.staging = staging;
+        return this;
+    }
+
+    /**
+     * The class loader the modifier class is looked up with, to find the modifiers declared as filters, see
+     * {@link Compiler#setFilters(Collection)}. Without the modifier class all modifiers are called as String -&gt;
+     * String methods.
+     *
+     * @param modifierClassLoader the class loader, null for the context class loader
+     * @return this
+     */
+    public Temporize setModifierClassLoader(ClassLoader modifierClassLoader) {
+        this.modifierClassLoader = modifierClassLoader;
+        return this;
+    }
+
     public Temporize setLog(Log log) {
         this.log = log;
         return this;
     }
 
+    /**
+     * In incremental mode only templates whose source or compiler changed since the last run are compiled. In
+     * either mode generated files are only written if their content changed and only deleted if their template is
+     * gone.
+     *
+     * @param incremental true to enable incremental compilation
+     * @return this
+     */
+    public Temporize setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
     public void exec(String inDir, String outDir, String modifier) throws IOException {
+        if (!staging) {
+            exec(inDir, outDir, modifier, null);
+            return;
+        }
+
+        // next to the output directory, so the files can be renamed into it
+        Path outDirectory = Paths.get(outDir).toAbsolutePath();
+        Files.createDirectories(outDirectory.getParent());
+        Path stagingDirectory = Files.createTempDirectory(outDirectory.getParent(), outDirectory.getFileName() + "-staging");
+
+        try {
+            exec(inDir, outDir, modifier, stagingDirectory);
+        } finally {
+            FileUtils.deleteDirectory(stagingDirectory.toFile());
+        }
+    }
+
+    /**
+     * @param inDir            the template directory
+     * @param outDir           the output directory
+     * @param modifier         the modifier class
+     * @param stagingDirectory the directory compiled templates are written to until they're published, or null
+     *                         to keep them in memory
+     * @throws IOException on read or write errors
+     */
+    private void exec(String inDir, String outDir, String modifier, Path stagingDirectory) throws IOException {
         if (this.log == null)
             this.log = new SystemStreamLog();
 
@@ -41,50 +213,88 @@ public class Temporize {
 
         PathMatcher pm = inDirectory.getFileSystem().getPathMatcher("glob:**/*.temporize.*");
 
-        Set<String> includes = new HashSet<>();
-
-        // gather all template files and compile them
-        List<CompiledTemplate> compiledTemplates = Files.find(inDirectory, 64, (f, a) -> pm.matches(f))
-                .map(t -> {
-                    TemplateFile tf = new TemplateFile(inDirectory, t);
+        Set<String> filters = findFilters(modifier, modifierClassLoader != null
+                ? modifierClassLoader
+                : Thread.currentThread().getContextClassLoader());
+        String compiler = getCompilerSignature(modifier, filters);
 
-                    log.info("processing " + tf.getFile().toString());
+        if (!filters.isEmpty())
+            log.info("Streaming modifiers: " + String.join(", ", filters));
 
-                    try {
-                        String packageName = tf.createPackageName();
-                        String className = tf.getClassName();
+        List<TemplateFile> templateFiles;
+        try (Stream<Path> files = Files.find(inDirectory, 64, (f, a) -> pm.matches(f))) {
+            templateFiles = files.sorted()
+                    .map(t -> new TemplateFile(inDirectory, t))
+                    .collect(Collectors.toList());
+        }
 
-                        log.info(String.format("Class: %s.%s", packageName, className));
+        // the files generated by the previous run
+        Manifest previous = Files.isDirectory(outDirectory) ? Manifest.read(outDirectory) : null;
+
+        int threads = Math.min(getThreadCount(), templateFiles.size());
+        if (threads > 1)
+            log.info("Processing " + templateFiles.size() + " templates on " + threads + " threads");
+
+        // in shared literals mode all templates are parsed up front, the literals they share must be known before
+        // the first one is compiled
+        Map<Path, Source> sources = new ConcurrentHashMap<>();
+        SharedLiterals shared = null;
+
+        if (sharedLiterals) {
+            run(templateFiles, tf -> {
+                try {
+                    sources.put(tf.getFile(), parse(tf));
+                } catch (RuntimeException | IOException e) {
+                    // reported when the template is processed
+                }
+                return tf;
+            }, tf -> false);
+
+            shared = SharedLiterals.select(
+                    SharedLiterals.getCommonPackage(templateFiles.stream()
+                            .map(TemplateFile::getPackageName)
+                            .collect(Collectors.toList())),
+                    templateFiles.stream()
+                            .map(tf -> sources.get(tf.getFile()))
+                            .filter(Objects::nonNull)
+                            .map(source -> source.ast)
+                            .collect(Collectors.toList()),
+                    literalBlobThreshold);
+
+            log.info(shared.report());
+        }
 
-                        // parse source file
-                        // ParseResult tokens = Parser.FULL.parse(t);
-                        ParseResult tokens = Parser.FULL.parse(t);
+        SharedLiterals sharedSelection = shared;
 
-                        byte[] hash = tokens.getHash();
+        Set<String> includes = new HashSet<>();
+        List<CompiledTemplate> compiledTemplates = new ArrayList<>();
 
-                        // build AST
-                        ASTNode root = new ASTBuilder().build(tokens);
+        // check and compile all templates; results and errors are reported in the order of the files, no matter in
+        // which order the templates were processed
+        for (TemplateResult result : run(templateFiles,
+                tf -> process(tf, outDirectory, modifier, filters, compiler, sharedSelection, sources, previous, stagingDirectory),
+                result -> result.failure != null)) {
+            result.messages.forEach(log::info);
+            result.warnings.forEach(log::warn);
 
-                        // compile
-                        Template tpl = new Compiler().compile(packageName, className, modifier, root,
-                                inc -> {
-                                    log.info(" * Includes " + inc);
-                                    includes.add(inc);
-                                });
+            if (result.failure != null)
+                throw result.failure;
 
-                        return new CompiledTemplate(tf, tpl, hash);
+            includes.addAll(result.includes);
 
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }).collect(Collectors.toList());
+            if (result.compiled != null)
+                compiledTemplates.add(result.compiled);
+        }
 
+        Set<TemplateFile> compiledFiles = compiledTemplates.stream()
+                .map(ct -> ct.templateFile)
+                .collect(Collectors.toSet());
 
-        Set<String> templateNames = compiledTemplates.stream()
-                .map(t -> t.template.packageName + "." + t.template.className)
+        Set<String> templateNames = templateFiles.stream()
+                .map(tf -> tf.getPackageName() + "." + tf.getClassName())
                 .collect(Collectors.toSet());
 
-        Set<String> missingIncludes = new HashSet<>(includes);
+        Set<String> missingIncludes = new TreeSet<>(includes);
         missingIncludes.removeAll(templateNames);
 
         if (!missingIncludes.isEmpty()) {
@@ -96,7 +306,24 @@ public class Temporize {
             if (!Files.isDirectory(outDirectory))
                 throw new RuntimeException("Output destination " + outDirectory.toString() + " is not a directory");
 
-            cleanUp(outDirectory);
+            // only remove files whose templates are gone, the others are overwritten if they changed
+            Set<Path> expected = templateFiles.stream()
+                    .flatMap(tf -> Stream.of(tf.getOutputFile(outDirectory), tf.getLiteralsFile(outDirectory)))
+                    .collect(Collectors.toSet());
+
+            expected.add(outDirectory.resolve("net/h34t/temporize/TemporizeTemplate.java"));
+
+            if (shared != null && !shared.isEmpty())
+                expected.addAll(Arrays.asList(getSharedLiteralsFiles(outDirectory, shared)));
+
+            if (previous != null) {
+                for (Path file : previous.getFiles()) {
+                    if (!expected.contains(file) && Files.deleteIfExists(file))
+                        log.info("removing " + file.toString());
+                }
+            } else {
+                cleanUp(outDirectory, expected);
+            }
 
         } else if (!Files.exists(outDirectory)) {
             try {
@@ -116,13 +343,35 @@ public class Temporize {
         }
 
         // copy the TemporizeTemplate file from the packaged resources into the output directory
-        // but only if it doesn't exist yet
+        // but only if it doesn't exist yet or was created by a different version
         Path temporizeInterface = temporizeDirectory.resolve("TemporizeTemplate.java");
 
-        if (!Files.exists(temporizeInterface)) {
-            Files.copy(
-                    Temporize.class.getClassLoader().getResourceAsStream("net/h34t/temporize/TemporizeTemplate.java"),
-                    temporizeInterface);
+        byte[] interfaceSource;
+        try (InputStream is = Temporize.class.getClassLoader().getResourceAsStream("net/h34t/temporize/TemporizeTemplate.java")) {
+            interfaceSource = IOUtils.toByteArray(is);
+        }
+
+        Manifest manifest = new Manifest(outDirectory);
+
+        int[] written = {manifest.write(temporizeInterface, interfaceSource, "-", "-", compiler, Collections.emptyList(), previous) ? 1 : 0};
+
+        // the literals shared by the templates
+        if (shared != null && !shared.isEmpty()) {
+            Path[] files = getSharedLiteralsFiles(outDirectory, shared);
+            Files.createDirectories(files[0].getParent());
+
+            if (manifest.write(files[0], (new GeneratedHeader(shared.getSignature(), compiler, Collections.emptyList()).format()
+                    + shared.createSource()).getBytes(StandardCharsets.UTF_8), "-", "-", compiler, Collections.emptyList(), previous))
+                written[0]++;
+
+            if (manifest.write(files[1], shared.toByteArray(), "-", "-", compiler, Collections.emptyList(), previous))
+                written[0]++;
+        }
+
+        // the outputs of up to date templates stay as they are
+        for (TemplateFile tf : templateFiles) {
+            if (!compiledFiles.contains(tf))
+                keep(tf, getSourceName(inDirectory, tf), outDirectory, previous, manifest);
         }
 
         // first, try to create all output directories
@@ -137,61 +386,483 @@ public class Temporize {
                     }
                 });
 
-        // finally, create all files
+        // finally, create all files, leaving the unchanged ones alone
         compiledTemplates.forEach(t -> {
             try {
-                Path file = t.templateFile.getOutputFile(outDirectory);
+                String source = getSourceName(inDirectory, t.templateFile);
+                String sourceHash = Hexer.getHex(t.hash);
+
+                if (t.output.publish(t.templateFile.getOutputFile(outDirectory), source, sourceHash, t.compiler, t.includes, previous, manifest))
+                    written[0]++;
 
-                String output =
-                        String.format("/* $TEMPORIZE$SOURCE-HASH:%s */%n", Hexer.getHex(t.hash))
-                                + "/* Auto-generated file: no not edit, changes will be lost */\n"
-                                + t.template.code;
+                Path literalsFile = t.templateFile.getLiteralsFile(outDirectory);
 
-                Files.write(file, output.getBytes(StandardCharsets.UTF_8),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING,
-                        StandardOpenOption.WRITE);
+                if (t.literals != null) {
+                    if (t.literals.publish(literalsFile, source, sourceHash, t.compiler, Collections.emptyList(), previous, manifest))
+                        written[0]++;
+                } else {
+                    Files.deleteIfExists(literalsFile);
+                }
 
             } catch (IOException e) {
                 throw new RuntimeException("Failed writing the output files", e);
             }
         });
 
+        manifest.save();
+
         long et = System.nanoTime();
 
-        log.info("Done. Took " + (et - st) / 1_000_000 + "ms");
+        log.info(String.format("Done. Compiled %d of %d templates, wrote %d changed files. Took %dms",
+                compiledTemplates.size(), templateFiles.size(), written[0], (et - st) / 1_000_000));
     }
 
-    void cleanUp(Path directory) throws IOException {
-        PathMatcher pm = directory.getFileSystem().getPathMatcher("glob:**/*.java");
+    /**
+     * Lists the outputs of a template that is up to date in the new manifest.
+     *
+     * @param tf           the template file
+     * @param source       the name of the template relative to the input directory
+     * @param outDirectory the output directory
+     * @param previous     the manifest of the previous run or null
+     * @param manifest     the new manifest
+     * @throws IOException on read errors
+     */
+    private static void keep(TemplateFile tf, String source, Path outDirectory, Manifest previous, Manifest manifest) throws IOException {
+        Path outputFile = tf.getOutputFile(outDirectory);
+
+        for (Path file : Arrays.asList(outputFile, tf.getLiteralsFile(outDirectory))) {
+            Manifest.Entry entry = previous != null ? previous.get(file) : null;
+
+            if (entry != null) {
+                manifest.keep(entry);
+
+            } else if (Files.isRegularFile(file)) {
+                // the directory was generated without a manifest, the header of the java file has the rest
+                GeneratedHeader header = GeneratedHeader.read(outputFile);
+
+                if (header != null)
+                    manifest.write(file, Files.readAllBytes(file), source, header.sourceHash, header.compiler,
+                            file.equals(outputFile) ? header.includes : Collections.emptyList(), null);
+            }
+        }
+    }
 
-        Files.find(directory, 255, (f, a) -> pm.matches(f))
-                .forEach(f -> {
+    private static String getSourceName(Path inDirectory, TemplateFile tf) {
+        return inDirectory.relativize(tf.getFile()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Writes a file unless it already has the given content, so the modification times of generated files only
+     * change with their content and downstream compilers can skip them.
+     *
+     * @param file    the file
+     * @param content the content
+     * @return true if the file was written
+     * @throws IOException on read or write errors
+     */
+    static boolean writeIfChanged(Path file, byte[] content) throws IOException {
+        if (Files.isRegularFile(file)
+                && Files.size(file) == content.length
+                && Arrays.equals(content, Files.readAllBytes(file)))
+            return false;
+
+        Files.write(file, content);
+        return true;
+    }
+
+    /**
+     * Runs a task for all templates, in parallel if more than one thread is configured.
+     * <p>
+     * Running stops at the first failure when running on a single thread. In parallel mode the task runs for all
+     * templates, failures have to be picked from the results in the order of the files.
+     *
+     * @param templateFiles the templates
+     * @param task          the task
+     * @param failed        tells whether a result is a failure
+     * @param <T>           the type of the results
+     * @return the results in the order of the templates
+     */
+    private <T> List<T> run(List<TemplateFile> templateFiles, Function<TemplateFile, T> task, Predicate<T> failed) {
+        int threads = Math.min(getThreadCount(), templateFiles.size());
+
+        if (threads <= 1) {
+            List<T> results = new ArrayList<>();
+
+            for (TemplateFile tf : templateFiles) {
+                T result = task.apply(tf);
+                results.add(result);
+
+                if (failed.test(result))
+                    break;
+            }
+
+            return results;
+        }
 
-                    try (BufferedReader reader = Files.newBufferedReader(f)) {
-                        String line = reader.readLine();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futures = executor.invokeAll(templateFiles.stream()
+                    .map(tf -> (Callable<T>) () -> task.apply(tf))
+                    .collect(Collectors.toList()));
 
-                        if (line.startsWith("/* $TEMPORIZE")) {
-                            reader.close();
-                            Files.delete(f);
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures)
+                results.add(future.get());
+
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while compiling templates", e);
+
+        } catch (ExecutionException e) {
+            // the tasks only let errors through
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+
+            throw new RuntimeException(e.getCause());
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks whether a template is up to date and compiles it if it's not. Log messages are collected in the result
+     * instead of being logged right away, so they stay in order when running in parallel.
+     *
+     * @param tf           the template file
+     * @param outDirectory the output directory
+     * @param modifier     the modifier class
+     * @param filters      the modifiers declared as filters
+     * @param compiler     the current compiler signature
+     * @param shared       the literals shared between templates or null
+     * @param sources      the templates parsed up front, by file
+     * @param previous     the manifest of the previous run or null
+     * @param staging      the directory to write the generated files to right away or null
+     * @return the result
+     */
+    private TemplateResult process(TemplateFile tf, Path outDirectory, String modifier, Set<String> filters, String compiler,
+                                   SharedLiterals shared, Map<Path, Source> sources, Manifest previous,
+                                   Path staging) {
+        List<String> messages = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+
+        // compacted templates and templates referencing different shared literals generate different code from the
+        // same source
+        String signature = isCompacted(tf) ? compiler + " compact" : compiler;
+        if (shared != null)
+            signature += " shared-literals " + shared.getSignature();
+
+        Source source = sources.remove(tf.getFile());
+
+        try {
+            if (incremental) {
+                String hash = Hexer.getHex(source != null ? source.hash : Parser.hash(tf.getFile()));
+                Path outputFile = tf.getOutputFile(outDirectory);
+                List<String> includes = null;
+
+                if (previous != null) {
+                    Manifest.Entry entry = previous.get(outputFile);
+
+                    if (entry != null && entry.sourceHash.equals(hash) && entry.compiler.equals(signature) && entry.isUnchanged(outputFile))
+                        includes = entry.includes;
+
+                } else {
+                    GeneratedHeader header = GeneratedHeader.read(outputFile);
+
+                    if (header != null && header.isUpToDate(hash, signature))
+                        includes = header.includes;
+                }
+
+                if (includes != null) {
+                    messages.add("up to date " + tf.getFile().toString());
+                    return new TemplateResult(messages, warnings, null, new TreeSet<>(includes), null);
+                }
+            }
+
+            messages.add("processing " + tf.getFile().toString());
+
+            String packageName = tf.createPackageName();
+            String className = tf.getClassName();
+
+            messages.add(String.format("Class: %s.%s", packageName, className));
+
+            if (source == null)
+                source = parse(tf);
+
+            messages.addAll(source.messages);
+
+            // compile
+            Set<String> includes = new TreeSet<>();
+            Template tpl = new Compiler()
+                    .setMethodSizeLimit(methodSizeLimit)
+                    .setLiteralBlobThreshold(literalBlobThreshold)
+                    .setSharedLiterals(shared)
+                    .setFilters(filters)
+                    .setWarningHandler(warnings::add)
+                    .compile(packageName, className, modifier, source.ast,
+                            inc -> {
+                                messages.add(" * Includes " + inc);
+                                includes.add(inc);
+                            });
+
+            byte[] output = (new GeneratedHeader(Hexer.getHex(source.hash), signature, includes).format() + tpl.code)
+                    .getBytes(StandardCharsets.UTF_8);
+
+            CompiledTemplate compiled = new CompiledTemplate(tf, source.hash, signature, includes,
+                    GeneratedFile.of(output, staging != null ? tf.getOutputFile(staging) : null),
+                    tpl.literals != null
+                            ? GeneratedFile.of(tpl.literals, staging != null ? tf.getLiteralsFile(staging) : null)
+                            : null);
+
+            return new TemplateResult(messages, warnings, compiled, includes, null);
+
+        } catch (RuntimeException e) {
+            return new TemplateResult(messages, warnings, null, Collections.emptySet(), e);
+
+        } catch (IOException e) {
+            return new TemplateResult(messages, warnings, null, Collections.emptySet(), new RuntimeException(e));
+        }
+    }
+
+    /**
+     * Parses a template and builds its optimized syntax tree.
+     *
+     * @param tf the template file
+     * @return the syntax tree
+     * @throws IOException on read errors
+     */
+    private Source parse(TemplateFile tf) throws IOException {
+        List<String> messages = new ArrayList<>();
+
+        // parse the source file and build the AST from the tokens as they're found
+        ASTBuilder.Session session = new ASTBuilder().start();
+        byte[] hash;
+
+        if (isCompacted(tf)) {
+            long[] literalChars = new long[2];
+
+            hash = Parser.FULL.parse(tf.getFile(), countLiterals(literalChars, 0,
+                    new WhitespaceCompactor().compacting(countLiterals(literalChars, 1, session))));
+
+            messages.add(String.format(" * Compacted whitespace: %d -> %d literal chars",
+                    literalChars[0], literalChars[1]));
+
+        } else {
+            hash = Parser.FULL.parse(tf.getFile(), session);
+        }
+
+        CompactAST root = session.finish();
+
+        if (optimize)
+            root = new Optimizer().optimize(root, pass -> messages.add(" * Optimized " + pass));
+
+        return new Source(messages, hash, root);
+    }
+
+    private boolean isCompacted(TemplateFile tf) {
+        String fileName = tf.getFile().getFileName().toString();
+        return compactWhitespace.stream().anyMatch(fileName::endsWith);
+    }
+
+    /**
+     * @param outDirectory the output directory
+     * @param shared       the shared literals
+     * @return the java file and the resource of the holder class of the shared literals
+     */
+    private static Path[] getSharedLiteralsFiles(Path outDirectory, SharedLiterals shared) {
+        Path directory = outDirectory.resolve(shared.getPackageName().replace('.', '/'));
+
+        return new Path[]{
+                directory.resolve(SharedLiterals.CLASS_NAME + ".java"),
+                directory.resolve(SharedLiterals.CLASS_NAME + LiteralBlob.EXTENSION)};
+    }
+
+    /**
+     * @param counts   the counters
+     * @param index    the index of the counter to add the length of passing literals to
+     * @param consumer the consumer to pass the tokens on to
+     * @return a consumer counting literal chars
+     */
+    private static Consumer<Token> countLiterals(long[] counts, int index, Consumer<Token> consumer) {
+        return token -> {
+            if (token instanceof Token.Literal)
+                counts[index] += token.contents.length();
+
+            consumer.accept(token);
+        };
+    }
+
+    private int getThreadCount() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * The compiler signature written into every generated file. Files generated with a different signature are
+     * outdated, even if their template didn't change.
+     *
+     * @param modifier the modifier class
+     * @param filters  the modifiers declared as filters
+     * @return the signature
+     */
+    static String getCompilerSignature(String modifier, Set<String> filters) {
+        return COMPILER_VERSION + " " + (modifier != null ? modifier : "-")
+                + (filters.isEmpty() ? "" : " filters " + String.join(",", new TreeSet<>(filters)));
+    }
+
+    /**
+     * Finds the modifiers declared as filters, i.e. as <code>public static Appendable name(Appendable out)</code>.
+     *
+     * @param modifier    the modifier class or null
+     * @param classLoader the class loader to load it with
+     * @return the names of the filters, empty if the class can't be loaded
+     */
+    static Set<String> findFilters(String modifier, ClassLoader classLoader) {
+        Set<String> filters = new TreeSet<>();
+
+        if (modifier == null)
+            return filters;
+
+        try {
+            for (Method method : Class.forName(modifier, false, classLoader).getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())
+                        && method.getReturnType() == Appendable.class
+                        && Arrays.equals(method.getParameterTypes(), new Class<?>[]{Appendable.class}))
+                    filters.add(method.getName());
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            // the modifier class isn't compiled yet or not on the class path, all modifiers are String modifiers
+        }
+
+        return filters;
+    }
+
+    /**
+     * Removes all files generated by temporize except for the ones given.
+     *
+     * @param directory the output directory
+     * @param keep      the generated files to keep
+     * @throws IOException on read errors
+     */
+    void cleanUp(Path directory, Set<Path> keep) throws IOException {
+        PathMatcher pm = directory.getFileSystem().getPathMatcher("glob:**/*.{java,literals}");
+
+        try (Stream<Path> files = Files.find(directory, 255, (f, a) -> pm.matches(f))) {
+            files.filter(f -> !keep.contains(f))
+                    .forEach(f -> {
+                        try {
+                            boolean generated = f.toString().endsWith(LiteralBlob.EXTENSION)
+                                    ? LiteralBlob.isGenerated(f)
+                                    : GeneratedHeader.isGenerated(f);
+
+                            if (generated) {
+                                log.info("removing " + f.toString());
+                                Files.delete(f);
+                            }
+
+                        } catch (IOException e) {
+                            throw new RuntimeException("Failed to read or delete compiled template " + f.toString(), e);
                         }
+                    });
+        }
+    }
 
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to read or delete compiled template " + f.toString(), e);
-                    }
-                });
+    private static class TemplateResult {
+
+        final List<String> messages;
+        final List<String> warnings;
+        final CompiledTemplate compiled;
+        final Set<String> includes;
+        final RuntimeException failure;
+
+        TemplateResult(List<String> messages, List<String> warnings, CompiledTemplate compiled, Set<String> includes, RuntimeException failure) {
+            this.messages = messages;
+            this.warnings = warnings;
+            this.compiled = compiled;
+            this.includes = includes;
+            this.failure = failure;
+        }
+    }
+
+    private static class Source {
+
+        final List<String> messages;
+        final byte[] hash;
+        final CompactAST ast;
+
+        Source(List<String> messages, byte[] hash, CompactAST ast) {
+            this.messages = messages;
+            this.hash = hash;
+            this.ast = ast;
+        }
     }
 
     private static class CompiledTemplate {
 
         final TemplateFile templateFile;
-        final Template template;
         final byte[] hash;
+        final String compiler;
+        final Set<String> includes;
+        final GeneratedFile output;
+
+        /**
+         * The resource holding the large literals or null.
+         */
+        final GeneratedFile literals;
 
-        CompiledTemplate(TemplateFile templateFile, Template template, byte[] hash) {
+        CompiledTemplate(TemplateFile templateFile, byte[] hash, String compiler, Set<String> includes,
+                         GeneratedFile output, GeneratedFile literals) {
             this.templateFile = templateFile;
-            this.template = template;
             this.hash = hash;
+            this.compiler = compiler;
+            this.includes = includes;
+            this.output = output;
+            this.literals = literals;
+        }
+    }
+
+    /**
+     * The content of a generated file, kept in memory or staged in a temporary directory.
+     */
+    private static class GeneratedFile {
+
+        final byte[] content;
+        final Path staged;
+        final String contentHash;
+
+        private GeneratedFile(byte[] content, Path staged, String contentHash) {
+            this.content = content;
+            this.staged = staged;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * @param content the content
+         * @param staged  the file to stage the content in or null to keep it in memory
+         * @return the generated file
+         * @throws IOException on write errors
+         */
+        static GeneratedFile of(byte[] content, Path staged) throws IOException {
+            if (staged == null)
+                return new GeneratedFile(content, null, null);
+
+            Files.createDirectories(staged.getParent());
+            Files.write(staged, content);
+
+            return new GeneratedFile(null, staged, Manifest.hash(content));
+        }
+
+        /**
+         * Writes or moves the content to its file, unless the file already has it, and lists it in the manifest.
+         *
+         * @return true if the file was written
+         */
+        boolean publish(Path file, String source, String sourceHash, String compiler, Collection<String> includes,
+                        Manifest previous, Manifest manifest) throws IOException {
+            return staged != null
+                    ? manifest.move(staged, file, contentHash, source, sourceHash, compiler, includes, previous)
+                    : manifest.write(file, content, source, sourceHash, compiler, includes, previous);
         }
     }
 }
@@ -1,13 +1,25 @@
 package net.h34t.temporize;
 
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 
-@Mojo(name = "generate-templates", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Mojo(name = "generate-templates", defaultPhase = LifecyclePhase.GENERATE_SOURCES,
+        requiresDependencyResolution = ResolutionScope.COMPILE)
 public class TemporizeMojo extends AbstractMojo {
 
     @Parameter(defaultValue = "${project}")
@@ -22,13 +34,79 @@ public class TemporizeMojo extends AbstractMojo {
     @Parameter(property = "temporize.modifier", required = true)
     private String modifier;
 
+    /**
+     * Only compile templates that changed since the last build.
+     */
+    @Parameter(property = "temporize.incremental", defaultValue = "false")
+    private boolean incremental;
+
+    /**
+     * The number of threads used to compile templates, 0 uses one thread per available processor.
+     */
+    @Parameter(property = "temporize.threads", defaultValue = "1")
+    private int threads;
+
+    /**
+     * Generated render methods estimated larger than this many bytes of bytecode are split into helper methods, so
+     * HotSpot can still JIT compile them. 0 disables splitting.
+     */
+    @Parameter(property = "temporize.methodSizeLimit", defaultValue = "7000")
+    private int methodSizeLimit;
+
+    /**
+     * Literals longer than this many chars are stored in a resource next to the generated class instead of the
+     * class file. 0 keeps all literals in the class file.
+     */
+    @Parameter(property = "temporize.literalBlobThreshold", defaultValue = "8192")
+    private int literalBlobThreshold;
+
+    /**
+     * Optimizes templates before compiling them: merges adjacent constants and removes sections that render nothing.
+     */
+    @Parameter(property = "temporize.optimize", defaultValue = "true")
+    private boolean optimize;
+
+    /**
+     * The file name suffixes of templates whose whitespace between tags is compacted, e.g. ".temporize.html".
+     */
+    @Parameter(property = "temporize.compactWhitespace")
+    private List<String> compactWhitespace;
+
+    /**
+     * Stores literals used by more than one generated class once, in a generated TemporizeLiterals class.
+     */
+    @Parameter(property = "temporize.sharedLiterals", defaultValue = "false")
+    private boolean sharedLiterals;
+
+    /**
+     * Writes compiled templates to a staging directory right away instead of keeping them in memory until all
+     * templates compiled.
+     */
+    @Parameter(property = "temporize.staging", defaultValue = "false")
+    private boolean staging;
+
     @Override
     public void execute() throws MojoFailureException {
         getLog().info("Temporize template compilation");
         project.addCompileSourceRoot(outputPath);
-        try {
+
+        // the large literals are stored next to the generated sources and must end up next to the classes
+        Resource literals = new Resource();
+        literals.setDirectory(outputPath);
+        literals.addInclude("**/*.literals");
+        project.addResource(literals);
+        try (URLClassLoader modifierClassLoader = getModifierClassLoader()) {
             new Temporize()
                     .setLog(getLog())
+                    .setIncremental(incremental)
+                    .setThreads(threads)
+                    .setMethodSizeLimit(methodSizeLimit)
+                    .setLiteralBlobThreshold(literalBlobThreshold)
+                    .setOptimize(optimize)
+                    .setCompactWhitespace(compactWhitespace != null ? compactWhitespace : Collections.emptyList())
+                    .setSharedLiterals(sharedLiterals)
+                    .setStaging(staging)
+                    .setModifierClassLoader(modifierClassLoader)
                     .exec(
                             inputPath,
                             outputPath,
@@ -37,4 +115,24 @@ public class TemporizeMojo extends AbstractMojo {
             throw new MojoFailureException("An error occurred", e);
         }
     }
+
+    /**
+     * The modifier class is looked up in the dependencies of the project, not in its own classes, which are compiled
+     * after the templates and may be outdated.
+     *
+     * @return the class loader of the compile class path without the output directory
+     */
+    private URLClassLoader getModifierClassLoader() throws DependencyResolutionRequiredException, MalformedURLException {
+        List<URL> urls = new ArrayList<>();
+        File outputDirectory = new File(project.getBuild().getOutputDirectory());
+
+        for (Object element : project.getCompileClasspathElements()) {
+            File file = new File(element.toString());
+
+            if (!file.equals(outputDirectory))
+                urls.add(file.toURI().toURL());
+        }
+
+        return new URLClassLoader(urls.toArray(new URL[0]), getClass().getClassLoader());
+    }
 }
@@ -157,8 +157,18 @@ public abstract class Token {
      */
     public static class Literal extends Token {
 
+        /**
+         * The literal comes from a skip section and must be output exactly as written.
+         */
+        public final boolean verbatim;
+
         public Literal(String contents, String source, int line, int offs) {
+            this(contents, source, line, offs, false);
+        }
+
+        public Literal(String contents, String source, int line, int offs, boolean verbatim) {
             super(contents, source, line, offs);
+            this.verbatim = verbatim;
         }
     }
 
@@ -17,6 +17,19 @@ public abstract class TokenCreator {
 
     public abstract Token create(MatchResult matchResult, String source, int line);
 
+    /**
+     * The literal text every match of {@link #getPattern()} starts with, e.g. <code>{$</code> or <code>{/for}</code>.
+     * <p>
+     * The parser uses the character following the opening brace to pick the creators that are worth trying at a
+     * given position, so only patterns that can actually match there are run. Creators that don't know their prefix
+     * may keep the default, they are then tried at every brace.
+     *
+     * @return the literal prefix of all matches, starting with <code>{</code>
+     */
+    public String getPrefix() {
+        return "{";
+    }
+
     /**
      * Emits a {@link Token.Variable} that are defined in the form of {$name|modifier1|modifier1|...},
      * where the modifiers are optional.
@@ -36,6 +49,11 @@ public abstract class TokenCreator {
                     return EXP;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{$";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Variable(matchResult.group(),
@@ -66,6 +84,11 @@ public abstract class TokenCreator {
                     return EXP;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{*$";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Variable(matchResult.group(),
@@ -90,6 +113,11 @@ public abstract class TokenCreator {
                     return pattern;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{for";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Block(matchResult.group(), matchResult.group(1), source, line, matchResult.start());
@@ -112,6 +140,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{/for}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.BlockEnd(matchResult.group(), source, line, matchResult.start());
@@ -125,7 +158,7 @@ public abstract class TokenCreator {
      */
     public static class Include {
 
-        public static final Pattern PATTERN = Pattern.compile("\\{include\\s+(((\\w+.)*)([A-Z]\\w*))\\s+as\\s+\\$(\\w+)}");
+        public static final Pattern PATTERN = Pattern.compile("\\{include\\s+((?:\\w++\\.)*+[A-Z]\\w*)\\s+as\\s+\\$(\\w+)}");
 
         public static TokenCreator getCreator() {
             return new TokenCreator() {
@@ -134,9 +167,14 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{include";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
-                    return new Token.Include(matchResult.group(), matchResult.group(1), matchResult.group(5), source, line, matchResult.start());
+                    return new Token.Include(matchResult.group(), matchResult.group(1), matchResult.group(2), source, line, matchResult.start());
                 }
             };
         }
@@ -158,6 +196,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{if";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Conditional(matchResult.group(), matchResult.group(1), source, line, matchResult.start());
@@ -182,6 +225,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{else}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.ConditionalElse(matchResult.group(), source, line, matchResult.start());
@@ -204,6 +252,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{/if}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.ConditionalEnd(matchResult.group(), source, line, matchResult.start());
@@ -228,6 +281,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{skip}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Skip(matchResult.group(), source, line, matchResult.start());
@@ -250,6 +308,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{/skip}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.SkipEnd(matchResult.group(), source, line, matchResult.start());
@@ -274,6 +337,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{comment}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.Comment(matchResult.group(0), source, line, matchResult.start());
@@ -296,6 +364,11 @@ public abstract class TokenCreator {
                     return PATTERN;
                 }
 
+                @Override
+                public String getPrefix() {
+                    return "{/comment}";
+                }
+
                 @Override
                 public Token create(MatchResult matchResult, String source, int line) {
                     return new Token.CommentEnd(matchResult.group(0), source, line, matchResult.start());
@@ -1,6 +1,8 @@
 package net.h34t.temporize;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Utils {
 
@@ -8,12 +10,11 @@ public class Utils {
         if (collection == null || collection.size() < 2)
             return false;
 
-        for (int i = 0; i < collection.size() - 1; i++) {
-            for (int j = i + 1; j < collection.size(); j++) {
-                if (collection.get(i).equals(collection.get(j)))
-                    return true;
-            }
-        }
+        Set<A> seen = new HashSet<>();
+
+        for (A element : collection)
+            if (!seen.add(element))
+                return true;
 
         return false;
     }
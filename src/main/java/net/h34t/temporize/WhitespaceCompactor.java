@@ -0,0 +1,194 @@
+package net.h34t.temporize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collapses runs of whitespace in the literals of HTML and XML templates, which mostly consist of the indentation of
+ * the markup. A run becomes a single line break if it contains one, or a single space otherwise, so the rendered
+ * document stays the same for a browser.
+ * <p>
+ * Only text between tags is compacted. Tags (including their attribute values), comments, the contents of
+ * {@code <pre>}, {@code <textarea>} and {@code <script>} elements and skip sections are left as they are.
+ * <p>
+ * The markup is tracked across the tokens of the template in document order, which doesn't take branches into
+ * account: a raw element opened in only one branch of a conditional is considered open after the conditional.
+ */
+public class WhitespaceCompactor {
+
+    /**
+     * Elements whose contents are output as written.
+     */
+    private static final String[] RAW_ELEMENTS = {"pre", "textarea", "script"};
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int RAW = 2;
+
+    /**
+     * @param tokens the tokens of a template
+     * @return the tokens with compacted literals
+     */
+    public List<Token> compact(List<Token> tokens) {
+        List<Token> compacted = new ArrayList<>(tokens.size());
+        tokens.forEach(compacting(compacted::add));
+        return compacted;
+    }
+
+    /**
+     * Compacts tokens as they arrive, e.g. between {@link Parser#parse(java.nio.file.Path, Consumer)} and an
+     * {@link ASTBuilder.Session}.
+     *
+     * @param consumer the consumer of the compacted tokens
+     * @return the consumer of the tokens of a template, in document order
+     */
+    public Consumer<Token> compacting(Consumer<Token> consumer) {
+        State state = new State();
+
+        return token -> {
+            if (token instanceof Token.Literal && !((Token.Literal) token).verbatim)
+                token = new Token.Literal(state.compact(token.contents), token.source, token.line, token.offs);
+
+            consumer.accept(token);
+        };
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * @param text the text
+     * @param from the position of a tag name
+     * @return the name of the raw element starting at the position or null
+     */
+    private static String rawElement(String text, int from) {
+        for (String element : RAW_ELEMENTS) {
+            int end = from + element.length();
+
+            if (text.regionMatches(true, from, element, 0, element.length())
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)) && text.charAt(end) != '-'))
+                return element;
+        }
+
+        return null;
+    }
+
+    private static int indexOfIgnoreCase(String text, String str, int from) {
+        for (int i = from; i <= text.length() - str.length(); i++)
+            if (text.regionMatches(true, i, str, 0, str.length()))
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * The position in the markup, carried from literal to literal.
+     */
+    private static class State {
+
+        int mode = TEXT;
+
+        /**
+         * The quote of the attribute value the current tag is in, or 0.
+         */
+        char quote;
+
+        /**
+         * The raw element the current tag opens, or null.
+         */
+        String element;
+
+        /**
+         * The end of the current raw section, i.e. the closing tag of a raw element or the end of a comment.
+         */
+        String terminator;
+
+        String compact(String text) {
+            StringBuilder sb = new StringBuilder(text.length());
+            int i = 0;
+
+            while (i < text.length()) {
+                char c = text.charAt(i);
+
+                if (mode == RAW) {
+                    int end = indexOfIgnoreCase(text, terminator, i);
+
+                    if (end < 0) {
+                        sb.append(text, i, text.length());
+                        i = text.length();
+
+                    } else if (terminator.equals("-->")) {
+                        sb.append(text, i, end + 3);
+                        i = end + 3;
+                        mode = TEXT;
+
+                    } else {
+                        // the closing tag is processed as a tag
+                        sb.append(text, i, end);
+                        i = end;
+                        mode = TAG;
+                    }
+
+                } else if (mode == TAG) {
+                    if (quote != 0) {
+                        if (c == quote)
+                            quote = 0;
+
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+
+                    } else if (c == '>') {
+                        if (element != null) {
+                            terminator = "</" + element;
+                            element = null;
+                            mode = RAW;
+                        } else {
+                            mode = TEXT;
+                        }
+                    }
+
+                    sb.append(c);
+                    i++;
+
+                } else if (c == '<') {
+                    if (text.startsWith("<!--", i)) {
+                        terminator = "-->";
+                        mode = RAW;
+                        sb.append("<!--");
+                        i += 4;
+
+                    } else {
+                        element = rawElement(text, i + 1);
+                        mode = TAG;
+                        sb.append(c);
+                        i++;
+                    }
+
+                } else if (isWhitespace(c)) {
+                    int end = i;
+                    boolean lineBreak = false;
+
+                    while (end < text.length() && isWhitespace(text.charAt(end))) {
+                        lineBreak |= text.charAt(end) == '\n';
+                        end++;
+                    }
+
+                    if (end - i == 1)
+                        sb.append(c);
+                    else
+                        sb.append(lineBreak ? '\n' : ' ');
+
+                    i = end;
+
+                } else {
+                    sb.append(c);
+                    i++;
+                }
+            }
+
+            return sb.toString();
+        }
+    }
+}
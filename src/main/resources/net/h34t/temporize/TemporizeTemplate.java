@@ -4,4 +4,1201 @@ public interface TemporizeTemplate {
 
     void write(java.io.Writer w) throws java.io.IOException;
 
+    /**
+     * Writes the UTF-8 encoded output.
+     *
+     * @param os the stream to write to
+     * @throws java.io.IOException on write errors
+     */
+    default void write(java.io.OutputStream os) throws java.io.IOException {
+        write(os, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the encoded output. Generated templates copy their pre-encoded literals and only encode the dynamic
+     * values, so the charset must encode every part on its own, i.e. not write byte order marks (use UTF-16BE
+     * instead of UTF-16).
+     *
+     * @param os      the stream to write to
+     * @param charset the output encoding
+     * @throws java.io.IOException on write errors
+     */
+    default void write(java.io.OutputStream os, java.nio.charset.Charset charset) throws java.io.IOException {
+        java.io.Writer w = new java.io.OutputStreamWriter(os, charset);
+        write(w);
+        w.flush();
+    }
+
+    /**
+     * Appends the output to a StringBuilder. Generated templates append directly, without locking or checked
+     * exceptions.
+     *
+     * @param sb the StringBuilder to append to
+     */
+    default void appendTo(StringBuilder sb) {
+        try {
+            write(new java.io.Writer() {
+                @Override
+                public void write(char[] buffer, int offset, int length) {
+                    sb.append(buffer, offset, length);
+                }
+
+                @Override
+                public void write(String str, int offset, int length) {
+                    sb.append(str, offset, offset + length);
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the output to any Appendable, taking the shortest route for StringBuilders and Writers.
+     *
+     * @param appendable the Appendable to append to
+     * @throws java.io.IOException if the Appendable fails
+     */
+    default void appendTo(Appendable appendable) throws java.io.IOException {
+        if (appendable instanceof StringBuilder) {
+            appendTo((StringBuilder) appendable);
+
+        } else if (appendable instanceof java.io.Writer) {
+            write((java.io.Writer) appendable);
+
+        } else {
+            StringBuilder sb = new StringBuilder();
+            appendTo(sb);
+            appendable.append(sb);
+        }
+    }
+
+    /**
+     * The expected length of the output, used to presize buffers. Generated templates return the length of their
+     * literals plus an estimate of the dynamic part learned from previous renders.
+     *
+     * @return the expected number of chars
+     */
+    default int sizeHint() {
+        return 16;
+    }
+
+    /**
+     * Calculates the exact length of the output without writing anything. Note that modifiers are still applied to
+     * get the length of their result.
+     *
+     * @return the number of chars the output will have
+     */
+    default int measure() {
+        return render(this, false).length();
+    }
+
+    /**
+     * Checks if the template has no output. Generated templates check their literals, values, blocks and includes
+     * without rendering anything, so rows streamed from an Iterator or a Stream aren't consumed; values are checked
+     * before modifiers are applied and a block with rows counts as output.
+     *
+     * @return true if nothing would be written
+     */
+    default boolean isEmpty() {
+        return measure() == 0;
+    }
+
+    /**
+     * Renders a template into a String, presized by {@link #sizeHint()}.
+     *
+     * @param template the template
+     * @return the output
+     */
+    static String render(TemporizeTemplate template) {
+        return render(template, false);
+    }
+
+    /**
+     * Renders a template into a String.
+     *
+     * @param template the template
+     * @param exact    true to presize the buffer by an exact {@link #measure()} pass instead of the
+     *                 {@link #sizeHint()}, which pays off for large outputs whose size varies a lot
+     * @return the output
+     */
+    static String render(TemporizeTemplate template, boolean exact) {
+        StringBuilder sb = new StringBuilder(exact ? template.measure() : template.sizeHint());
+        template.appendTo(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Updates a learned estimate: it follows larger observations immediately, so the next buffer is big enough,
+     * and decays slowly towards smaller ones.
+     * <p>
+     * Generated templates keep the estimate in a static volatile field without any locking and only write it when
+     * it changes, so renders of similar size don't contend for its cache line. Concurrent updates may overwrite each
+     * other, which only loses an observation.
+     *
+     * @param estimate the current estimate
+     * @param observed the observed value
+     * @return the new estimate
+     */
+    static int estimate(int estimate, int observed) {
+        return observed >= estimate
+                ? observed
+                : estimate - ((estimate - observed) >> 4);
+    }
+
+    /**
+     * @param rows the rows of a block
+     * @return true if there are no rows, checked without consuming any row of an Iterator or a Stream
+     */
+    static boolean isEmpty(Iterable<?> rows) {
+        if (rows == null)
+            return true;
+
+        if (rows instanceof java.util.Collection)
+            return ((java.util.Collection<?>) rows).isEmpty();
+
+        if (rows instanceof RowSource)
+            return ((RowSource<?, ?>) rows).isEmpty();
+
+        return !rows.iterator().hasNext();
+    }
+
+    /**
+     * The rows of a block, produced while the template is written instead of being collected beforehand, e.g. from
+     * a database cursor.
+     * <p>
+     * Rows of an Iterator or a Stream can only be written once. Note that {@link #measure()}, which is called by
+     * {@link #render(TemporizeTemplate, boolean)} with exact presizing, counts as writing.
+     *
+     * @param <E> the type of the elements
+     * @param <T> the type of the rows
+     */
+    final class RowSource<E, T> implements Iterable<T> {
+
+        private final Iterable<? extends E> elements;
+        private final java.util.Iterator<? extends E> once;
+        private final java.util.function.Function<? super E, ? extends T> mapper;
+        private boolean consumed;
+        private boolean empty;
+
+        /**
+         * The number of rows filled by index or -1.
+         */
+        private final int rows;
+        private final T row;
+        private final java.util.function.ObjIntConsumer<? super T> fill;
+
+        private RowSource(Iterable<? extends E> elements, java.util.Iterator<? extends E> once,
+                          java.util.function.Function<? super E, ? extends T> mapper) {
+            this.elements = elements;
+            this.once = once;
+            this.mapper = mapper;
+            this.rows = -1;
+            this.row = null;
+            this.fill = null;
+        }
+
+        private RowSource(int rows, T row, java.util.function.ObjIntConsumer<? super T> fill) {
+            this.elements = null;
+            this.once = null;
+            this.mapper = null;
+            this.rows = rows;
+            this.row = row;
+            this.fill = fill;
+        }
+
+        /**
+         * @param rows the rows
+         * @param <T>  the type of the rows
+         * @return rows that can be written once
+         */
+        public static <T> RowSource<T, T> of(java.util.Iterator<? extends T> rows) {
+            return new RowSource<>(null, rows, java.util.function.Function.identity());
+        }
+
+        /**
+         * Maps every element onto the same row, so a single row is allocated for any number of elements. The mapper
+         * must set every value the row uses, values set for the previous element are kept otherwise.
+         *
+         * @param elements the elements
+         * @param row      the reused row
+         * @param mapper   sets the values of the row for an element
+         * @param <E>      the type of the elements
+         * @param <T>      the type of the row
+         * @return the rows
+         */
+        public static <E, T> RowSource<E, T> flyweight(Iterable<? extends E> elements, T row,
+                                                       java.util.function.BiConsumer<? super T, ? super E> mapper) {
+            return new RowSource<>(elements, null, fill(row, mapper));
+        }
+
+        /**
+         * Maps every element onto the same row like {@link #flyweight(Iterable, Object, java.util.function.BiConsumer)},
+         * the rows can be written once.
+         *
+         * @param elements the elements
+         * @param row      the reused row
+         * @param mapper   sets the values of the row for an element
+         * @param <E>      the type of the elements
+         * @param <T>      the type of the row
+         * @return the rows
+         */
+        public static <E, T> RowSource<E, T> flyweight(java.util.Iterator<? extends E> elements, T row,
+                                                       java.util.function.BiConsumer<? super T, ? super E> mapper) {
+            return new RowSource<>(null, elements, fill(row, mapper));
+        }
+
+        /**
+         * Fills the same row for every index, e.g. from the columns of a table, so neither rows nor elements are
+         * allocated. The rows can be written any number of times.
+         *
+         * @param rows the number of rows
+         * @param row  the reused row
+         * @param fill sets the values of the row for an index
+         * @param <T>  the type of the row
+         * @return the rows
+         */
+        public static <T> RowSource<Void, T> columns(int rows, T row, java.util.function.ObjIntConsumer<? super T> fill) {
+            if (rows < 0)
+                throw new IllegalArgumentException("Negative row count " + rows);
+
+            return new RowSource<>(rows, row, fill);
+        }
+
+        private static <E, T> java.util.function.Function<E, T> fill(T row, java.util.function.BiConsumer<? super T, ? super E> mapper) {
+            return element -> {
+                mapper.accept(row, element);
+                return row;
+            };
+        }
+
+        /**
+         * @return true if there are no rows, also after rows that can be written once were written
+         */
+        public boolean isEmpty() {
+            if (fill != null)
+                return rows == 0;
+
+            if (once == null)
+                return TemporizeTemplate.isEmpty(elements);
+
+            return consumed ? empty : !once.hasNext();
+        }
+
+        @Override
+        public java.util.Iterator<T> iterator() {
+            if (fill != null) {
+                return new java.util.Iterator<T>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < rows;
+                    }
+
+                    @Override
+                    public T next() {
+                        if (index >= rows)
+                            throw new java.util.NoSuchElementException();
+
+                        fill.accept(row, index++);
+                        return row;
+                    }
+                };
+            }
+
+            java.util.Iterator<? extends E> iterator;
+
+            if (once != null) {
+                if (consumed)
+                    throw new IllegalStateException("The rows of an Iterator or Stream can only be written once");
+
+                empty = !once.hasNext();
+                consumed = true;
+                iterator = once;
+            } else {
+                iterator = elements.iterator();
+            }
+
+            return new java.util.Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return mapper.apply(iterator.next());
+                }
+            };
+        }
+    }
+
+    /**
+     * The values of a column of block rows by row index, for the columnar setters of blocks: a
+     * {@link TextColumn}, {@link LongColumn} or {@link DoubleColumn}, e.g. <code>Column.of(names)</code> or
+     * <code>(LongColumn) row -&gt; ids[row]</code>.
+     */
+    interface Column {
+
+        /**
+         * @param value the current value of the row or null
+         * @param row   the index of the row
+         * @return the value holding the cell of the row
+         */
+        PlaceholderValue set(PlaceholderValue value, int row);
+
+        static Column of(CharSequence... values) {
+            return (TextColumn) row -> values[row];
+        }
+
+        static Column of(long... values) {
+            return (LongColumn) row -> values[row];
+        }
+
+        static Column of(int... values) {
+            return (LongColumn) row -> values[row];
+        }
+
+        static Column of(double... values) {
+            return (DoubleColumn) row -> values[row];
+        }
+    }
+
+    /**
+     * A column of text values.
+     */
+    @FunctionalInterface
+    interface TextColumn extends Column {
+
+        /**
+         * @param row the index of the row
+         * @return the value of the row
+         */
+        CharSequence get(int row);
+
+        @Override
+        default PlaceholderValue set(PlaceholderValue value, int row) {
+            return PlaceholderValue.set(value, get(row));
+        }
+    }
+
+    /**
+     * A column of integral values, written digit by digit without creating a String.
+     */
+    @FunctionalInterface
+    interface LongColumn extends Column {
+
+        /**
+         * @param row the index of the row
+         * @return the value of the row
+         */
+        long get(int row);
+
+        @Override
+        default PlaceholderValue set(PlaceholderValue value, int row) {
+            return PlaceholderValue.set(value, get(row));
+        }
+    }
+
+    /**
+     * A column of floating point values, written without creating a String.
+     */
+    @FunctionalInterface
+    interface DoubleColumn extends Column {
+
+        /**
+         * @param row the index of the row
+         * @return the value of the row
+         */
+        double get(int row);
+
+        @Override
+        default PlaceholderValue set(PlaceholderValue value, int row) {
+            return PlaceholderValue.set(value, get(row));
+        }
+    }
+
+    /**
+     * The value of a placeholder as it was set: a CharSequence, a long, a double or a template. Numbers are written
+     * digit by digit, CharSequences without copying them into a String and templates are rendered in place, straight
+     * into the output of the enclosing template. Modifiers get the value as a String. A null CharSequence or template
+     * is written as an empty value.
+     * <p>
+     * Templates are kept as references, so they're rendered as they are when the enclosing template is written, not
+     * as they were when they were set. A conditional on a template value measures it, which counts as writing for
+     * the rows of an Iterator or a Stream.
+     * <p>
+     * Generated templates create the value when the placeholder is set for the first time and reuse it afterwards,
+     * so setting the placeholders of reused rows doesn't allocate.
+     */
+    final class PlaceholderValue {
+
+        private static final byte TEXT = 0;
+        private static final byte LONG = 1;
+        private static final byte DOUBLE = 2;
+        private static final byte TEMPLATE = 3;
+
+        /**
+         * The number of chars copied per write of a CharSequence to a Writer.
+         */
+        private static final int CHUNK_SIZE = 1024;
+
+        private byte type;
+        private CharSequence text;
+        private TemporizeTemplate template;
+        private long number;
+        private double fraction;
+
+        private PlaceholderValue() {
+        }
+
+        /**
+         * @param value the current value or null
+         * @param text  the new content
+         * @return the value holding the new content
+         */
+        public static PlaceholderValue set(PlaceholderValue value, CharSequence text) {
+            if (value == null)
+                value = new PlaceholderValue();
+
+            value.type = TEXT;
+            value.text = text;
+            value.template = null;
+            return value;
+        }
+
+        /**
+         * @param value  the current value or null
+         * @param number the new content
+         * @return the value holding the new content
+         */
+        public static PlaceholderValue set(PlaceholderValue value, long number) {
+            if (value == null)
+                value = new PlaceholderValue();
+
+            value.type = LONG;
+            value.text = null;
+            value.template = null;
+            value.number = number;
+            return value;
+        }
+
+        /**
+         * @param value  the current value or null
+         * @param number the new content
+         * @return the value holding the new content
+         */
+        public static PlaceholderValue set(PlaceholderValue value, double number) {
+            if (value == null)
+                value = new PlaceholderValue();
+
+            value.type = DOUBLE;
+            value.text = null;
+            value.template = null;
+            value.fraction = number;
+            return value;
+        }
+
+        /**
+         * @param value    the current value or null
+         * @param template the new content, rendered when the enclosing template is written
+         * @return the value holding the new content
+         */
+        public static PlaceholderValue set(PlaceholderValue value, TemporizeTemplate template) {
+            if (template == null)
+                return set(value, (CharSequence) null);
+
+            if (value == null)
+                value = new PlaceholderValue();
+
+            value.type = TEMPLATE;
+            value.text = null;
+            value.template = template;
+            return value;
+        }
+
+        /**
+         * @return true if the value is an empty or null CharSequence or a template without output
+         */
+        public boolean isEmpty() {
+            if (type == TEMPLATE)
+                return template.isEmpty();
+
+            return type == TEXT && (text == null || text.length() == 0);
+        }
+
+        /**
+         * @param value a value or null
+         * @return the value as a String, e.g. for modifiers
+         */
+        public static String text(PlaceholderValue value) {
+            if (value == null)
+                return "";
+
+            switch (value.type) {
+                case LONG:
+                    return Long.toString(value.number);
+                case DOUBLE:
+                    return Double.toString(value.fraction);
+                case TEMPLATE:
+                    return TemporizeTemplate.render(value.template);
+                default:
+                    return value.text == null ? "" : value.text.toString();
+            }
+        }
+
+        /**
+         * @param value a value or null
+         * @return the number of chars of the value
+         */
+        public static int length(PlaceholderValue value) {
+            if (value == null)
+                return 0;
+
+            switch (value.type) {
+                case LONG:
+                    return (value.number < 0 ? 1 : 0) + digits(value.number < 0 ? value.number : -value.number);
+                case DOUBLE:
+                    return Double.toString(value.fraction).length();
+                case TEMPLATE:
+                    return value.template.measure();
+                default:
+                    return value.text == null ? 0 : value.text.length();
+            }
+        }
+
+        /**
+         * @param sb    the StringBuilder to append to
+         * @param value a value or null
+         */
+        public static void append(StringBuilder sb, PlaceholderValue value) {
+            if (value == null)
+                return;
+
+            switch (value.type) {
+                case LONG:
+                    sb.append(value.number);
+                    break;
+                case DOUBLE:
+                    sb.append(value.fraction);
+                    break;
+                case TEMPLATE:
+                    value.template.appendTo(sb);
+                    break;
+                default:
+                    if (value.text != null)
+                        sb.append(value.text);
+            }
+        }
+
+        /**
+         * @param w     the writer to write to
+         * @param value a value or null
+         * @throws java.io.IOException on write errors
+         */
+        public static void write(java.io.Writer w, PlaceholderValue value) throws java.io.IOException {
+            if (value == null)
+                return;
+
+            switch (value.type) {
+                case LONG:
+                    writeDigits(w, value.number);
+                    break;
+                case DOUBLE:
+                    w.write(Double.toString(value.fraction));
+                    break;
+                case TEMPLATE:
+                    value.template.write(w);
+                    break;
+                default:
+                    if (value.text instanceof String)
+                        w.write((String) value.text);
+                    else if (value.text != null)
+                        write(w, value.text);
+            }
+        }
+
+        /**
+         * Appends the value to the Appendable of a streaming modifier, see {@link StreamingModifiers}.
+         *
+         * @param out   the Appendable to append to
+         * @param value a value or null
+         * @throws java.io.IOException if the Appendable fails
+         */
+        public static void append(Appendable out, PlaceholderValue value) throws java.io.IOException {
+            if (value == null)
+                return;
+
+            switch (value.type) {
+                case LONG:
+                    appendDigits(out, value.number);
+                    break;
+                case DOUBLE:
+                    out.append(Double.toString(value.fraction));
+                    break;
+                case TEMPLATE:
+                    value.template.appendTo(out);
+                    break;
+                default:
+                    if (value.text != null)
+                        out.append(value.text);
+            }
+        }
+
+        /**
+         * Writes the value, encoding only what isn't a number in an ASCII compatible charset. Templates write their
+         * pre-encoded literals.
+         *
+         * @param os    the stream to write to
+         * @param cs    the output encoding
+         * @param value a value or null
+         * @throws java.io.IOException on write errors
+         */
+        public static void write(java.io.OutputStream os, java.nio.charset.Charset cs, PlaceholderValue value) throws java.io.IOException {
+            if (value == null)
+                return;
+
+            if (value.type == LONG && isAsciiCompatible(cs)) {
+                long negative = value.number < 0 ? value.number : -value.number;
+
+                if (value.number < 0)
+                    os.write('-');
+
+                for (long unit = unit(negative); unit > 0; unit /= 10)
+                    os.write('0' - (int) (negative / unit % 10));
+
+            } else if (value.type == TEMPLATE) {
+                value.template.write(os, cs);
+
+            } else if (value.type == TEXT && !(value.text instanceof String)) {
+                if (value.text != null && value.text.length() > 0) {
+                    java.nio.ByteBuffer bytes = cs.encode(java.nio.CharBuffer.wrap(value.text));
+                    os.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                }
+
+            } else {
+                os.write(text(value).getBytes(cs));
+            }
+        }
+
+        private static void appendDigits(Appendable out, long number) throws java.io.IOException {
+            long negative = number < 0 ? number : -number;
+
+            if (number < 0)
+                out.append('-');
+
+            for (long unit = unit(negative); unit > 0; unit /= 10)
+                out.append((char) ('0' - negative / unit % 10));
+        }
+
+        private static boolean isAsciiCompatible(java.nio.charset.Charset cs) {
+            return java.nio.charset.StandardCharsets.UTF_8.equals(cs)
+                    || java.nio.charset.StandardCharsets.ISO_8859_1.equals(cs)
+                    || java.nio.charset.StandardCharsets.US_ASCII.equals(cs);
+        }
+
+        /**
+         * @param negative a number &lt;= 0, which covers Long.MIN_VALUE
+         * @return the power of ten of the first digit
+         */
+        private static long unit(long negative) {
+            long unit = 1;
+
+            while (negative / unit <= -10)
+                unit *= 10;
+
+            return unit;
+        }
+
+        private static int digits(long negative) {
+            int digits = 1;
+
+            for (long unit = unit(negative); unit >= 10; unit /= 10)
+                digits++;
+
+            return digits;
+        }
+
+        /**
+         * Writes a CharSequence in chunks. A Writer may take a lock and run its encoder on every call, e.g. an
+         * OutputStreamWriter, so it isn't written char by char.
+         */
+        private static void write(java.io.Writer w, CharSequence text) throws java.io.IOException {
+            char[] chunk = new char[Math.min(text.length(), CHUNK_SIZE)];
+
+            for (int start = 0; start < text.length(); start += chunk.length) {
+                int end = Math.min(start + chunk.length, text.length());
+
+                if (text instanceof StringBuilder)
+                    ((StringBuilder) text).getChars(start, end, chunk, 0);
+                else if (text instanceof StringBuffer)
+                    ((StringBuffer) text).getChars(start, end, chunk, 0);
+                else
+                    for (int i = start; i < end; i++)
+                        chunk[i - start] = text.charAt(i);
+
+                w.write(chunk, 0, end - start);
+            }
+        }
+
+        /**
+         * Writes the digits of a number in a single call, see {@link #write(java.io.Writer, CharSequence)}.
+         */
+        private static void writeDigits(java.io.Writer w, long number) throws java.io.IOException {
+            // 19 digits and the sign of Long.MIN_VALUE
+            char[] digits = new char[20];
+            int start = digits.length;
+            long negative = number < 0 ? number : -number;
+
+            do {
+                digits[--start] = (char) ('0' - negative % 10);
+                negative /= 10;
+            } while (negative != 0);
+
+            if (number < 0)
+                digits[--start] = '-';
+
+            w.write(digits, start, digits.length - start);
+        }
+    }
+
+    /**
+     * Support for streaming modifiers. Besides <code>String -&gt; String</code> methods, a modifier class may declare
+     * a modifier as a filter, <code>public static Appendable html(Appendable out)</code>, which returns an Appendable
+     * writing the modified form of everything appended to it into out, e.g. escaping each char on the way. The
+     * compiler picks the filter if the modifier class is on its class path when the templates are compiled.
+     * <p>
+     * Consecutive filters are chained into a single pass. Filters at the end of a modifier chain write straight into
+     * the output of the template, filters followed by String modifiers write into a StringBuilder first.
+     */
+    final class StreamingModifiers {
+
+        private StreamingModifiers() {
+        }
+
+        /**
+         * @param filter the chained filters
+         * @param value  a value or null
+         * @return the filtered value, for a following String modifier
+         */
+        public static String apply(java.util.function.UnaryOperator<Appendable> filter, PlaceholderValue value) {
+            StringBuilder sb = new StringBuilder();
+            append(sb, filter, value);
+            return sb.toString();
+        }
+
+        /**
+         * @param filter the chained filters
+         * @param text   the output of a String modifier
+         * @return the filtered text, for a following String modifier
+         */
+        public static String apply(java.util.function.UnaryOperator<Appendable> filter, CharSequence text) {
+            StringBuilder sb = new StringBuilder(text.length());
+            append(sb, filter, text);
+            return sb.toString();
+        }
+
+        public static void append(StringBuilder sb, java.util.function.UnaryOperator<Appendable> filter, PlaceholderValue value) {
+            appendUnchecked(sb, filter, value);
+        }
+
+        public static void append(StringBuilder sb, java.util.function.UnaryOperator<Appendable> filter, CharSequence text) {
+            appendUnchecked(sb, filter, text);
+        }
+
+        public static void write(java.io.Writer w, java.util.function.UnaryOperator<Appendable> filter, PlaceholderValue value) throws java.io.IOException {
+            pass(w, filter, value);
+        }
+
+        public static void write(java.io.Writer w, java.util.function.UnaryOperator<Appendable> filter, CharSequence text) throws java.io.IOException {
+            pass(w, filter, text);
+        }
+
+        public static void write(java.io.OutputStream os, java.nio.charset.Charset cs, java.util.function.UnaryOperator<Appendable> filter, PlaceholderValue value) throws java.io.IOException {
+            encode(os, cs, filter, value);
+        }
+
+        public static void write(java.io.OutputStream os, java.nio.charset.Charset cs, java.util.function.UnaryOperator<Appendable> filter, CharSequence text) throws java.io.IOException {
+            encode(os, cs, filter, text);
+        }
+
+        public static int length(java.util.function.UnaryOperator<Appendable> filter, PlaceholderValue value) {
+            Counter counter = new Counter();
+            appendUnchecked(counter, filter, value);
+            return counter.length;
+        }
+
+        public static int length(java.util.function.UnaryOperator<Appendable> filter, CharSequence text) {
+            Counter counter = new Counter();
+            appendUnchecked(counter, filter, text);
+            return counter.length;
+        }
+
+        /**
+         * @param value a PlaceholderValue, a CharSequence or null
+         */
+        private static void pass(Appendable out, java.util.function.UnaryOperator<Appendable> filter, Object value) throws java.io.IOException {
+            Appendable in = filter.apply(out);
+
+            if (value instanceof PlaceholderValue)
+                PlaceholderValue.append(in, (PlaceholderValue) value);
+            else if (value != null)
+                in.append((CharSequence) value);
+        }
+
+        private static void appendUnchecked(Appendable out, java.util.function.UnaryOperator<Appendable> filter, Object value) {
+            try {
+                pass(out, filter, value);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Encodes UTF-8, ISO-8859-1 and US-ASCII while filtering, other charsets encode the filtered value at once.
+         */
+        private static void encode(java.io.OutputStream os, java.nio.charset.Charset cs, java.util.function.UnaryOperator<Appendable> filter, Object value) throws java.io.IOException {
+            int max = java.nio.charset.StandardCharsets.UTF_8.equals(cs) ? Character.MAX_CODE_POINT
+                    : java.nio.charset.StandardCharsets.ISO_8859_1.equals(cs) ? 0xff
+                    : java.nio.charset.StandardCharsets.US_ASCII.equals(cs) ? 0x7f
+                    : -1;
+
+            if (max < 0) {
+                StringBuilder sb = new StringBuilder();
+                pass(sb, filter, value);
+                os.write(sb.toString().getBytes(cs));
+                return;
+            }
+
+            Encoder encoder = new Encoder(os, max);
+            pass(encoder, filter, value);
+            encoder.finish();
+        }
+
+        private static final class Counter implements Appendable {
+
+            private int length;
+
+            @Override
+            public Appendable append(CharSequence csq) {
+                length += csq == null ? 4 : csq.length();
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) {
+                length += end - start;
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                length++;
+                return this;
+            }
+        }
+
+        /**
+         * Encodes chars into a small buffer, replacing unmappable chars and unpaired surrogates with '?' like
+         * {@link String#getBytes(java.nio.charset.Charset)}.
+         */
+        private static final class Encoder implements Appendable {
+
+            private final java.io.OutputStream os;
+            private final int max;
+            private final byte[] buffer = new byte[256];
+            private int length;
+            private char high;
+
+            Encoder(java.io.OutputStream os, int max) {
+                this.os = os;
+                this.max = max;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq) throws java.io.IOException {
+                return csq == null ? append("null") : append(csq, 0, csq.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws java.io.IOException {
+                if (csq == null)
+                    return append("null", start, end);
+
+                for (int i = start; i < end; i++)
+                    append(csq.charAt(i));
+
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) throws java.io.IOException {
+                if (high != 0) {
+                    char h = high;
+                    high = 0;
+
+                    if (Character.isLowSurrogate(c)) {
+                        put(Character.toCodePoint(h, c));
+                        return this;
+                    }
+
+                    put('?');
+                }
+
+                if (Character.isHighSurrogate(c))
+                    high = c;
+                else if (Character.isLowSurrogate(c))
+                    put('?');
+                else
+                    put(c);
+
+                return this;
+            }
+
+            private void put(int codePoint) throws java.io.IOException {
+                if (length > buffer.length - 4) {
+                    os.write(buffer, 0, length);
+                    length = 0;
+                }
+
+                if (codePoint > max) {
+                    buffer[length++] = '?';
+                } else if (codePoint < 0x80 || max < 0x800) {
+                    buffer[length++] = (byte) codePoint;
+                } else if (codePoint < 0x800) {
+                    buffer[length++] = (byte) (0xc0 | codePoint >> 6);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+                } else if (codePoint < 0x10000) {
+                    buffer[length++] = (byte) (0xe0 | codePoint >> 12);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+                } else {
+                    buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+                }
+            }
+
+            void finish() throws java.io.IOException {
+                if (high != 0) {
+                    high = 0;
+                    put('?');
+                }
+
+                os.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+    }
+
+    /**
+     * The constant literals of a generated template, encoded once per charset.
+     */
+    final class Literals {
+
+        private final String[] literals;
+        private final byte[][] utf8;
+        private final byte[][] iso88591;
+        private final java.util.concurrent.ConcurrentMap<java.nio.charset.Charset, byte[][]> encoded =
+                new java.util.concurrent.ConcurrentHashMap<>();
+
+        public Literals(String... literals) {
+            this.literals = literals;
+            this.utf8 = encode(java.nio.charset.StandardCharsets.UTF_8);
+            this.iso88591 = encode(java.nio.charset.StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * @param charset the output encoding
+         * @return the literals encoded with the given charset, indexed like the constructor arguments
+         */
+        public byte[][] encoded(java.nio.charset.Charset charset) {
+            if (java.nio.charset.StandardCharsets.UTF_8.equals(charset))
+                return utf8;
+
+            if (java.nio.charset.StandardCharsets.ISO_8859_1.equals(charset))
+                return iso88591;
+
+            return encoded.computeIfAbsent(charset, this::encode);
+        }
+
+        /**
+         * @param index the index of the literal
+         * @return the literal
+         */
+        public String get(int index) {
+            return literals[index];
+        }
+
+        private byte[][] encode(java.nio.charset.Charset charset) {
+            byte[][] bytes = new byte[literals.length][];
+
+            for (int i = 0; i < literals.length; i++)
+                bytes[i] = literals[i].getBytes(charset);
+
+            return bytes;
+        }
+    }
+
+    /**
+     * The large literals of a generated template. They're stored UTF-8 encoded in a resource next to the class
+     * instead of the constant pool, which limits strings to 64 KB. The resource is memory-mapped if it's a file,
+     * otherwise it's read into memory once.
+     */
+    final class Blob {
+
+        private static final byte[] MAGIC = "TEMPORIZE-LITERALS\n".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+        private final java.nio.ByteBuffer bytes;
+        private final int[] offsets;
+        private final String[] strings;
+        private final java.util.concurrent.ConcurrentMap<java.nio.charset.Charset, byte[][]> encoded =
+                new java.util.concurrent.ConcurrentHashMap<>();
+
+        /**
+         * @param owner    the class the resource belongs to
+         * @param resource the name of the resource relative to the owner
+         * @param offsets  the start of every literal in the resource, followed by the end of the last one
+         */
+        public Blob(Class<?> owner, String resource, int... offsets) {
+            this.bytes = load(owner, resource);
+            this.offsets = offsets;
+            this.strings = new String[offsets.length - 1];
+
+            for (int i = 0; i < MAGIC.length; i++)
+                if (bytes.limit() <= i || bytes.get(i) != MAGIC[i])
+                    throw new IllegalStateException(resource + " of " + owner.getName() + " is not a literal resource");
+        }
+
+        /**
+         * Sums up the offsets of the literals from their lengths, for resources with too many literals to list their
+         * offsets in the static initializer.
+         *
+         * @param start   the start of the first literal
+         * @param lengths the lengths of the literals in bytes, in chunks
+         * @return the start of every literal, followed by the end of the last one
+         */
+        public static int[] offsets(int start, int[]... lengths) {
+            int count = 0;
+            for (int[] chunk : lengths)
+                count += chunk.length;
+
+            int[] offsets = new int[count + 1];
+            offsets[0] = start;
+
+            int i = 0;
+            for (int[] chunk : lengths) {
+                for (int length : chunk) {
+                    offsets[i + 1] = offsets[i] + length;
+                    i++;
+                }
+            }
+
+            return offsets;
+        }
+
+        private static java.nio.ByteBuffer load(Class<?> owner, String resource) {
+            java.net.URL url = owner.getResource(resource);
+
+            if (url == null)
+                throw new IllegalStateException("Missing resource " + resource + " of " + owner.getName());
+
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(url.toURI()))) {
+                        return channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                }
+
+                try (java.io.InputStream is = url.openStream()) {
+                    java.io.ByteArrayOutputStream os = new java.io.ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    for (int n; (n = is.read(buffer)) != -1; )
+                        os.write(buffer, 0, n);
+
+                    return java.nio.ByteBuffer.wrap(os.toByteArray());
+                }
+
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException("Failed to load resource " + resource + " of " + owner.getName(), e);
+
+            } catch (java.net.URISyntaxException e) {
+                throw new IllegalStateException("Failed to load resource " + resource + " of " + owner.getName(), e);
+            }
+        }
+
+        private java.nio.ByteBuffer slice(int index) {
+            java.nio.ByteBuffer slice = bytes.duplicate();
+            slice.limit(offsets[index + 1]);
+            slice.position(offsets[index]);
+            return slice;
+        }
+
+        /**
+         * @param index the index of the literal
+         * @return the literal, decoded on first use
+         */
+        public String get(int index) {
+            String string = strings[index];
+
+            // racing threads decode the same immutable string, which is harmless
+            if (string == null)
+                strings[index] = string = java.nio.charset.StandardCharsets.UTF_8.decode(slice(index)).toString();
+
+            return string;
+        }
+
+        /**
+         * @return all literals of the resource, decoded once and kept encoded like the literals of a template
+         */
+        public Literals toLiterals() {
+            String[] literals = new String[strings.length];
+
+            for (int i = 0; i < literals.length; i++)
+                literals[i] = get(i);
+
+            return new Literals(literals);
+        }
+
+        /**
+         * Writes a literal, copying the stored bytes for UTF-8. Other charsets encode a literal on its first use and
+         * keep the bytes, like {@link Literals}.
+         *
+         * @param index   the index of the literal
+         * @param os      the stream to write to
+         * @param charset the output encoding
+         * @throws java.io.IOException on write errors
+         */
+        public void write(int index, java.io.OutputStream os, java.nio.charset.Charset charset) throws java.io.IOException {
+            if (!java.nio.charset.StandardCharsets.UTF_8.equals(charset)) {
+                byte[][] literals = encoded.computeIfAbsent(charset, c -> new byte[strings.length][]);
+                byte[] literal = literals[index];
+
+                // racing threads encode the same literal, which is harmless
+                if (literal == null)
+                    literals[index] = literal = get(index).getBytes(charset);
+
+                os.write(literal);
+
+            } else if (bytes.hasArray()) {
+                os.write(bytes.array(), bytes.arrayOffset() + offsets[index], offsets[index + 1] - offsets[index]);
+
+            } else {
+                java.nio.ByteBuffer slice = slice(index);
+                java.nio.channels.WritableByteChannel channel = java.nio.channels.Channels.newChannel(os);
+                while (slice.hasRemaining())
+                    channel.write(slice);
+            }
+        }
+    }
 }
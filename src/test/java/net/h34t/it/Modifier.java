@@ -0,0 +1,62 @@
+package net.h34t.it;
+
+import java.io.IOException;
+
+/**
+ * Modifiers used by the generated templates of the integration tests.
+ */
+public class Modifier {
+
+    public static String html(String in) {
+        return in.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+
+    /**
+     * The streaming form of {@link #html(String)}, preferred by the compiler at the end of modifier chains.
+     */
+    public static Appendable html(Appendable out) {
+        return new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException {
+                return append(csq, 0, csq.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException {
+                for (int i = start; i < end; i++)
+                    append(csq.charAt(i));
+
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                switch (c) {
+                    case '&':
+                        out.append("&amp;");
+                        break;
+                    case '<':
+                        out.append("&lt;");
+                        break;
+                    case '>':
+                        out.append("&gt;");
+                        break;
+                    case '"':
+                        out.append("&quot;");
+                        break;
+                    default:
+                        out.append(c);
+                }
+
+                return this;
+            }
+        };
+    }
+
+    public static String upper(String in) {
+        return in.toUpperCase();
+    }
+}
@@ -4,7 +4,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.PrimitiveIterator;
 
 public class ASTBuilderTest {
     @Test
@@ -94,4 +96,107 @@ public class ASTBuilderTest {
     public void testParseForUnmatchedBlock() throws IOException {
         new ASTBuilder().build(Parser.FULL.parse("boo{/for}bar"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void printConditional() throws Exception {
+        ASTNode root = new ASTBuilder().build(Parser.FULL.parse("{if $foo}{$bar}{else}baz{/if}"));
+
+        Assert.assertEquals("if foo\n" +
+                "    $bar:\n" +
+                "else\n" +
+                "    \"baz\"\n", root.print(0));
+    }
+
+    @Test
+    public void printDeeplyNested() throws Exception {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            source.append("{if $foo}");
+        for (int i = 0; i < 5000; i++)
+            source.append("{/if}");
+
+        ASTNode root = new ASTBuilder().build(Parser.FULL.parse(source.toString()));
+
+        Assert.assertEquals(5000, root.print(0).split("\n").length);
+    }
+
+    @Test
+    public void printCustomNode() throws Exception {
+        ASTNode root = new ASTBuilder().build(Parser.FULL.parse("{$bar}"));
+        ASTNode last = root;
+        while (last.hasNext())
+            last = last.next();
+
+        // subclasses only implement print, they're printed with their following nodes by themselves
+        last.setNext(new ASTNode(last) {
+            @Override
+            public String print(int indentation) {
+                return "custom " + indentation + "\n";
+            }
+        });
+
+        Assert.assertEquals("$bar:\ncustom 0\n", root.print(0));
+    }
+
+    @Test
+    public void buildCompact() throws Exception {
+        CompactAST ast = new ASTBuilder().buildCompact(Parser.FULL.parse("a{if $foo}{$bar|upper}{else}a{/if}{for $items}{/for}"));
+
+        Assert.assertEquals(5, ast.size());
+
+        Assert.assertEquals(CompactAST.CONSTANT, ast.kind(0));
+        Assert.assertEquals(CompactAST.CONDITIONAL, ast.kind(1));
+        Assert.assertEquals(4, ast.end(1));
+        Assert.assertEquals(3, ast.alternative(1));
+        Assert.assertEquals(3, ast.consequentEnd(1));
+        Assert.assertEquals("upper", ast.modifier(2, 0));
+        Assert.assertEquals(CompactAST.BLOCK, ast.kind(4));
+        Assert.assertEquals(5, ast.end(4));
+        Assert.assertEquals("Items", ast.blockClassName(4));
+
+        // literals share the string table
+        Assert.assertSame(ast.value(0), ast.value(3));
+
+        PrimitiveIterator.OfInt siblings = ast.siblings(0, ast.size());
+        Assert.assertEquals(0, siblings.nextInt());
+        Assert.assertEquals(1, siblings.nextInt());
+        Assert.assertEquals(4, siblings.nextInt());
+        Assert.assertFalse(siblings.hasNext());
+    }
+
+    @Test
+    public void convertCompact() throws Exception {
+        String source = "a{if $foo}{$bar|upper}{if $x}{else}{/if}{else}{for $items}{$baz}{/for}{/if}{include a.B as $b}";
+        ASTNode root = new ASTBuilder().build(Parser.FULL.parse(source));
+
+        Assert.assertEquals(root.print(0), CompactAST.of(root).toNodes().print(0));
+    }
+
+    @Test
+    public void buildStreaming() throws Exception {
+        String source = "a{comment}x{/comment}b{if $foo}{$bar|upper}{else}{skip}{$c}{/skip}{/if}{for $items}{/for}";
+
+        ASTBuilder.Session session = new ASTBuilder().start();
+        byte[] hash = Parser.FULL.parse(source, session);
+
+        ParseResult tokens = Parser.FULL.parse(source);
+        Assert.assertArrayEquals(tokens.getHash(), hash);
+        Assert.assertEquals(new ASTBuilder().build(tokens).print(0), session.finish().toNodes().print(0));
+    }
+
+    @Test(expected = ASTBuilder.MismatchedBranchException.class)
+    public void streamingReportsMismatchWhileParsing() {
+        List<Token> consumed = new ArrayList<>();
+        ASTBuilder.Session session = new ASTBuilder().start();
+
+        try {
+            Parser.FULL.parse("a{else}b{$c}", token -> {
+                consumed.add(token);
+                session.accept(token);
+            });
+        } finally {
+            // the literal after the mismatch was never scanned
+            Assert.assertEquals(2, consumed.size());
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package net.h34t.temporize;
 
+import net.h34t.temporize.integration.TestCompiler;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class CompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void createSetter() {
         String setter = Compiler.createSetter("Temporize", "String", "foo", 0);
@@ -178,5 +190,278 @@ public class CompilerTest {
         Assert.assertEquals(Collections.singleton("foo.bar.Baz"), includes);
     }
 
+    @Test
+    public void splitLargeRenderMethods() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            source.append("<p>{$a}</p>{if $b}<b>{$c}</b>{/if}\n");
+
+        List<String> warnings = new ArrayList<>();
+        Template tpl = new Compiler()
+                .setWarningHandler(warnings::add)
+                .compile("foo", "Bar", null, new ASTBuilder().build(Parser.FULL.parse(source.toString())), s -> {
+                });
+
+        Assert.assertTrue(tpl.code.contains("private void write$0(java.io.Writer w) throws java.io.IOException {"));
+        Assert.assertTrue(tpl.code.contains("private int measure$0() {"));
+        Assert.assertTrue(tpl.code.contains("private void appendTo$0(StringBuilder sb) {"));
+        Assert.assertTrue(tpl.code.contains("byte[][] l = LITERALS.encoded(cs);"));
+        Assert.assertEquals(Collections.emptyList(), warnings);
+    }
+
+    @Test
+    public void splitLargeConditionals() throws IOException {
+        StringBuilder source = new StringBuilder("{if $a}");
+        for (int i = 0; i < 100; i++)
+            source.append("<p>{$b}</p>\n");
+        source.append("{else}none{/if}");
+
+        Template tpl = new Compiler()
+                .setMethodSizeLimit(100)
+                .compile("foo", "Bar", null, new ASTBuilder().build(Parser.FULL.parse(source.toString())), s -> {
+                });
+
+        Assert.assertTrue(tpl.code.contains("    public void write(java.io.Writer w) throws java.io.IOException {\n\n"
+                + "        if (this.a) {\n"
+                + "            write$26(w);\n"
+                + "        } else {\n"
+                + "            write$27(w);\n"
+                + "        }\n"));
+        Assert.assertTrue(tpl.code.contains("    private void write$27(java.io.Writer w) throws java.io.IOException {\n"
+                + "        w.write(\"none\");\n"
+                + "    }\n"));
+    }
+
+    @Test
+    public void warnAboutHugeMethods() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            source.append("<p>{$a}</p>\n");
+
+        List<String> warnings = new ArrayList<>();
+        new Compiler()
+                .setMethodSizeLimit(0)
+                .setWarningHandler(warnings::add)
+                .compile("foo", "Bar", null, new ASTBuilder().build(Parser.FULL.parse(source.toString())), s -> {
+                });
+
+        Assert.assertEquals(4, warnings.size());
+        Assert.assertTrue(warnings.get(0).startsWith("Bar.appendTo is estimated at"));
+    }
+
+    @Test
+    public void storeLargeLiteralsInBlob() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100_000; i++)
+            large.append((char) ('a' + i % 26));
+
+        Template tpl = new Compiler()
+                .compile("foo", "Bar", null, new ASTBuilder().build(Parser.FULL.parse("small{$a}" + large + "{for $items}" + large + "{/for}")), s -> {
+                });
+
+        Assert.assertFalse(tpl.code.contains(large));
+        Assert.assertTrue(tpl.code.contains("w.write(\"small\");"));
+        Assert.assertTrue(tpl.code.contains("w.write(BLOB.get(0));"));
+        Assert.assertTrue(tpl.code.contains("BLOB.write(0, os, cs);"));
+        Assert.assertTrue(tpl.code.contains("new TemporizeTemplate.Blob(Bar.class, \"Bar.literals\","));
+
+        // the nested block class shares the blob of the outer class
+        Assert.assertEquals(1, tpl.code.split("TemporizeTemplate.Blob BLOB", -1).length - 1);
+        Assert.assertEquals(LiteralBlob.MAGIC.length + large.length(), tpl.literals.length);
+    }
+
+    @Test
+    public void keepSmallLiteralsInCode() throws IOException {
+        Template tpl = new Compiler()
+                .compile("foo", "Bar", null, new ASTBuilder().build(Parser.FULL.parse("small{$a}")), s -> {
+                });
+
+        Assert.assertNull(tpl.literals);
+        Assert.assertFalse(tpl.code.contains("BLOB"));
+    }
+
+    @Test
+    public void compileRepeatedConditionals() throws IOException {
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{if $flag}a{/if}{if $flag}b{/if}")
+        ), s -> {
+        });
+
+        Assert.assertEquals(1, tpl.code.split("private boolean flag;", -1).length - 1);
+    }
+
+    @Test
+    public void skipFullConstructorWithTooManyParameters() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            source.append("{$v").append(i).append("}");
+
+        List<String> warnings = new ArrayList<>();
+        Template tpl = new Compiler().setWarningHandler(warnings::add).compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse(source.toString())
+        ), s -> {
+        });
+
+        Assert.assertTrue(tpl.code.contains("public Bar() {"));
+        Assert.assertFalse(tpl.code.contains("public Bar(String"));
+        Assert.assertEquals(1, warnings.size());
+        Assert.assertTrue(warnings.get(0).startsWith("Bar has 300 values, blocks, includes and conditionals"));
+    }
+
+    @Test
+    public void compileConditionalOnLaterVariable() throws IOException {
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{if $name}Hello {/if}{$name}")
+        ), s -> {
+        });
+
+        Assert.assertTrue(tpl.code.contains("if (this.name != null && !this.name.isEmpty()) {"));
+        Assert.assertFalse(tpl.code.contains("private boolean name;"));
+    }
+
+    @Test
+    public void compileDeeplyNestedConditionals() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+            source.append("{if $flag}a");
+        for (int i = 0; i < 2000; i++)
+            source.append("{/if}");
+
+        Template tpl = new Compiler().setMethodSizeLimit(0).compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse(source.toString())
+        ), s -> {
+        });
+
+        // in each of the four render methods, isEmpty() returns at the literal of the outermost one
+        Assert.assertEquals(4 * 2000 + 1, tpl.code.split("if \\(this\\.flag\\) \\{", -1).length - 1);
+    }
+
+    @Test
+    public void compileStreamingModifiers() throws IOException {
+        Template tpl = new Compiler().setFilters(Arrays.asList("html", "esc")).compile("foo", "Bar", "a.b.C", new ASTBuilder().build(
+                Parser.FULL.parse("{$name|upper|html|esc}{$name|html|upper}")
+        ), s -> {
+        });
+
+        // trailing filters are chained and write into the output, others are applied before the String modifier
+        Assert.assertTrue(tpl.code.contains("TemporizeTemplate.StreamingModifiers.write(w, _out -> html(esc(_out)), upper(TemporizeTemplate.PlaceholderValue.text(this.name)));"));
+        Assert.assertTrue(tpl.code.contains("w.write(upper(TemporizeTemplate.StreamingModifiers.apply(_out -> html(_out), this.name)));"));
+    }
+
+    @Test
+    public void compileManyLiterals() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            source.append("<p>").append(i).append("</p>{$v").append(i % 10).append("}");
+
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse(source.toString())
+        ), s -> {
+        });
+
+        // too many for the static initializer and the constant pool, they're kept in the resource
+        Assert.assertNotNull(tpl.literals);
+        Assert.assertTrue(tpl.code.contains("TemporizeTemplate.Blob.offsets("));
+
+        assertCompiles(tpl);
+    }
+
+    @Test
+    public void compileConditionalsOnLocalNames() throws IOException {
+        // n and start are locals of measure() and appendTo()
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{if $n}<i>{$n}</i>{/if}{if $start}<b>{$start}</b>{/if}")
+        ), s -> {
+        });
+
+        Assert.assertTrue(tpl.code.contains("if (this.n != null && !this.n.isEmpty()) {"));
+        assertCompiles(tpl);
+    }
+
+    @Test
+    public void compileParameterNames() throws IOException {
+        // os, cs and l are the parameters and the literal table of the byte output, sb the buffer of appendTo()
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{if $cs}<b>{$cs}</b>{/if}{for $os}<i>{$l}</i>{/for}{if $sb}{include Bar as $sb}{/if}")
+        ), s -> {
+        });
+
+        Assert.assertTrue(tpl.code.contains("for (Os _block : this.os)"));
+        Assert.assertTrue(tpl.code.contains("this.sb.write(os, cs);"));
+        assertCompiles(tpl);
+    }
+
+    @Test
+    public void compileEmptyCheckOfManyValues() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            source.append("{if $flag}{$v").append(i).append("}{else}{include Bar as $p").append(i).append("}{/if}{$w").append(i).append("}");
+
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse(source.toString())
+        ), s -> {
+        });
+
+        // split between the top level nodes, so it stays within the size limit of a method
+        Assert.assertTrue(tpl.code.contains("if (!isEmpty$1())"));
+        assertCompiles(tpl);
+    }
+
+    @Test
+    public void compileColumnSetter() throws IOException {
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{for $rows}<td>{$id}</td>{if $odd}<td>odd</td>{/if}{/for}")
+        ), s -> {
+        });
+
+        // the column sets the cell, numbers without converting them to a String
+        Assert.assertTrue(tpl.code.contains("public Bar setRowsColumns(int _rows, TemporizeTemplate.Column id, java.util.function.IntPredicate odd) {"));
+        Assert.assertTrue(tpl.code.contains("_row.id = id.set(_row.id, _i);"));
+        Assert.assertTrue(tpl.code.contains("_row.odd = odd.test(_i);"));
+        assertCompiles(tpl);
+    }
+
+    @Test
+    public void compileNullBlockSetter() throws IOException {
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("{for $items}<li>{$name}</li>{/for}")
+        ), s -> {
+        });
 
-}
\ No newline at end of file
+        // the row sources and columns have their own setters, so clearing a block with null isn't ambiguous
+        Assert.assertTrue(tpl.code.contains("public Bar setItemsRows(java.util.Iterator<? extends Items> items) {"));
+        Assert.assertTrue(tpl.code.contains("public Bar setItemsColumns(int _rows, TemporizeTemplate.Column name) {"));
+
+        Path dir = folder.newFolder(tpl.packageName).toPath();
+        Path file = dir.resolve(tpl.className + ".java");
+        Path caller = dir.resolve("Caller.java");
+        Files.write(file, tpl.code.getBytes(StandardCharsets.UTF_8));
+        Files.write(caller, ("package foo;\n" +
+                "class Caller {\n" +
+                "    Bar clear() {\n" +
+                "        return new Bar().setItems(null);\n" +
+                "    }\n" +
+                "}\n").getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue("Compilation failed", TestCompiler.test(Arrays.asList(file.toFile(), caller.toFile())));
+    }
+
+    @Test
+    public void compileSizeEstimateUpdate() throws IOException {
+        Template tpl = new Compiler().compile("foo", "Bar", null, new ASTBuilder().build(
+                Parser.FULL.parse("<p>{$text}</p>")
+        ), s -> {
+        });
+
+        // the shared estimate is only written when it changed
+        Assert.assertTrue(tpl.code.contains("        int dynamic = dynamicLength;\n" +
+                "        int estimate = TemporizeTemplate.estimate(dynamic, sb.length() - start - LITERAL_LENGTH);\n" +
+                "        if (estimate != dynamic)\n" +
+                "            dynamicLength = estimate;\n"));
+    }
+
+    private void assertCompiles(Template tpl) throws IOException {
+        Path file = folder.newFolder(tpl.packageName).toPath().resolve(tpl.className + ".java");
+        Files.write(file, tpl.code.getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue("Compilation failed", TestCompiler.test(Collections.singletonList(file.toFile())));
+    }
+}
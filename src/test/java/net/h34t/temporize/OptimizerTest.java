@@ -0,0 +1,91 @@
+package net.h34t.temporize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OptimizerTest {
+
+    private static CompactAST build(String source) throws IOException {
+        return new ASTBuilder().buildCompact(Parser.FULL.parse(source));
+    }
+
+    private static String compile(CompactAST ast) {
+        return new Compiler().compile("foo", "Bar", null, ast, s -> {
+        }).code;
+    }
+
+    @Test
+    public void mergeConstants() throws IOException {
+        CompactAST ast = Optimizer.MERGE_CONSTANTS.apply(Optimizer.FOLD_CONSTANTS.apply(build("a{if $x}{/if}b{$foo}c")));
+
+        Assert.assertEquals(4, ast.size());
+        Assert.assertEquals("ab", ast.value(0));
+        Assert.assertTrue(ast.isSilent(1));
+        Assert.assertEquals("c", ast.value(3));
+    }
+
+    @Test
+    public void foldEmptySections() throws IOException {
+        CompactAST ast = Optimizer.FOLD_CONSTANTS.apply(build("a{if $x}{else}{/if}{for $items}{/for}b"));
+
+        Assert.assertTrue(ast.isSilent(1));
+        Assert.assertTrue(ast.isSilent(2));
+        Assert.assertEquals(2, Optimizer.countStatements(ast));
+
+        // the values are still declared
+        String code = compile(ast);
+        Assert.assertTrue(code.contains("public Bar setX(boolean x)"));
+        Assert.assertTrue(code.contains("public Bar setItems(List<Items> items)"));
+        Assert.assertTrue(code.contains("public static class Items implements TemporizeTemplate"));
+        Assert.assertFalse(code.contains("if (this.x)"));
+        Assert.assertFalse(code.contains("for (Items _block : this.items)"));
+    }
+
+    @Test
+    public void foldEqualBranches() throws IOException {
+        CompactAST ast = new Optimizer().optimize(build("a{if $x}b{if $y}c{else}c{/if}{else}bc{/if}d"), s -> {
+        });
+
+        Assert.assertEquals(CompactAST.CONSTANT, ast.kind(0));
+        Assert.assertEquals("abcd", ast.value(0));
+        Assert.assertEquals(1, Optimizer.countStatements(ast));
+
+        String code = compile(ast);
+        Assert.assertTrue(code.contains("w.write(\"abcd\");"));
+        Assert.assertTrue(code.contains("public Bar setY(boolean y)"));
+    }
+
+    @Test
+    public void removeDeadBranches() throws IOException {
+        CompactAST ast = Optimizer.DEAD_BRANCHES.apply(
+                build("{if $x}{if $x}a{else}{$b}{/if}{else}{if $x}c{else}d{/if}{for $items}{if $x}e{/if}{/for}{/if}"));
+
+        String code = compile(Optimizer.MERGE_CONSTANTS.apply(ast));
+
+        // the outer conditional and the one in the block, in each of the four render methods and isEmpty()
+        Assert.assertEquals(10, code.split("if \\(this\\.x\\)", -1).length - 1);
+        Assert.assertTrue(code.contains("w.write(\"a\");"));
+        Assert.assertTrue(code.contains("w.write(\"d\");"));
+        Assert.assertFalse(code.contains("w.write(this.b);"));
+        Assert.assertTrue(code.contains("public Bar setB(String b)"));
+    }
+
+    @Test
+    public void report() throws IOException {
+        List<String> report = new ArrayList<>();
+        new Optimizer().optimize(build("a{if $x}{/if}b"), report::add);
+
+        // passes that didn't change anything aren't reported
+        Assert.assertEquals(Collections.singletonList(
+                "merge-constants: 3 -> 2 nodes, 2 -> 1 render statements"), report);
+
+        report.clear();
+        new Optimizer().optimize(build("a{$x}b"), report::add);
+        Assert.assertEquals(Collections.emptyList(), report);
+    }
+}
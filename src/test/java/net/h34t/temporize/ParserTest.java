@@ -6,7 +6,14 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
 
 public class ParserTest {
 
@@ -119,4 +126,108 @@ public class ParserTest {
         Assert.assertEquals("boo", var.modifiers[1]);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInclude() throws IOException {
+        List<Token> tokens = Parser.FULL.parse("{include foo.bar.Baz as $baz}{include Qux as $qux}");
+
+        Assert.assertEquals(2, tokens.size());
+
+        Token.Include include = (Token.Include) tokens.get(0);
+        Assert.assertEquals("foo.bar.Baz", include.includeName);
+        Assert.assertEquals("baz", include.instanceName);
+
+        Token.Include plain = (Token.Include) tokens.get(1);
+        Assert.assertEquals("Qux", plain.includeName);
+        Assert.assertEquals("qux", plain.instanceName);
+    }
+
+    @Test
+    public void testMixedLine() throws IOException {
+        List<Token> tokens = Parser.FULL.parse("{ {x} {if $a}{{$b}}{else}{/if}{for $cc}{include a.B as $d}{/for}{");
+
+        Assert.assertEquals(Token.Literal.class, tokens.get(0).getClass());
+        Assert.assertEquals("{ {x} ", tokens.get(0).contents);
+        Assert.assertEquals(Token.Conditional.class, tokens.get(1).getClass());
+        Assert.assertEquals("{", tokens.get(2).contents);
+        Assert.assertEquals(Token.Variable.class, tokens.get(3).getClass());
+        Assert.assertEquals(14, tokens.get(3).offs);
+        Assert.assertEquals("}", tokens.get(4).contents);
+        Assert.assertEquals(Token.ConditionalElse.class, tokens.get(5).getClass());
+        Assert.assertEquals(Token.ConditionalEnd.class, tokens.get(6).getClass());
+        Assert.assertEquals(Token.Block.class, tokens.get(7).getClass());
+        Assert.assertEquals(Token.Include.class, tokens.get(8).getClass());
+        Assert.assertEquals(Token.BlockEnd.class, tokens.get(9).getClass());
+        Assert.assertEquals("{", tokens.get(10).contents);
+        Assert.assertEquals(11, tokens.size());
+    }
+
+    @Test
+    public void testCreatorWithoutPrefix() throws IOException {
+        // creators that don't declare a prefix are tried at every brace
+        TokenCreator variable = TokenCreator.Variable.getCreator();
+        Parser parser = new Parser(new TokenCreator[]{new TokenCreator() {
+            @Override
+            public Pattern getPattern() {
+                return variable.getPattern();
+            }
+
+            @Override
+            public Token create(MatchResult matchResult, String source, int line) {
+                return variable.create(matchResult, source, line);
+            }
+        }});
+
+        List<Token> tokens = parser.parse("a{$value}c");
+        testTokens(tokens);
+    }
+
+    @Test
+    public void testMultiLineTag() throws IOException {
+        List<Token> tokens = Parser.FULL.parse("<p>\n  {include foo.Bar\n      as $bar}{if\n$x}{/if}");
+
+        Assert.assertEquals(4, tokens.size());
+
+        Token.Include include = (Token.Include) tokens.get(1);
+        Assert.assertEquals("foo.Bar", include.includeName);
+        Assert.assertEquals("bar", include.instanceName);
+        Assert.assertEquals(2, include.line);
+        Assert.assertEquals(2, include.offs);
+
+        Assert.assertEquals(Token.Conditional.class, tokens.get(2).getClass());
+        Assert.assertEquals(3, tokens.get(2).line);
+        Assert.assertEquals(14, tokens.get(2).offs);
+    }
+
+    @Test
+    public void testLineBreaks() throws IOException {
+        List<Token> tokens = Parser.FULL.parse("a\r\n{$b}\rc\r\n\r\n");
+
+        Assert.assertEquals(3, tokens.size());
+        Assert.assertEquals("a\n", tokens.get(0).contents);
+        Assert.assertEquals(2, tokens.get(1).line);
+        Assert.assertEquals("\nc\n", tokens.get(2).contents);
+    }
+
+    @Test
+    public void testHash() throws IOException {
+        Path file = Files.createTempFile("hash", ".temporize.html");
+
+        try {
+            byte[] bytes = "<p>\u00e4 {$a}</p>\n".getBytes(StandardCharsets.UTF_8);
+            Files.write(file, bytes);
+
+            ParseResult result = Parser.FULL.parse(file);
+
+            Assert.assertEquals("<p>\u00e4 ", result.get(0).contents);
+            Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), result.getHash());
+            Assert.assertArrayEquals(result.getHash(), Parser.hash(file));
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.h34t.temporize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class SharedLiteralsTest {
+
+    private static CompactAST build(String source) throws IOException {
+        return new ASTBuilder().buildCompact(Parser.FULL.parse(source));
+    }
+
+    @Test
+    public void selectLiteralsOfSeveralClasses() throws IOException {
+        SharedLiterals shared = SharedLiterals.select("foo", Arrays.asList(
+                build("<div class=\"row\">{$a}</div>{for $items}<div class=\"row\">{/for}<p>only used once here</p>"),
+                build("<div class=\"row\">{$b}<div class=\"row\">{$c}short")), 8192);
+
+        Assert.assertEquals(0, shared.indexOf("<div class=\"row\">"));
+        Assert.assertEquals(-1, shared.indexOf("<p>only used once here</p>"));
+        Assert.assertEquals(-1, shared.indexOf("short"));
+        Assert.assertEquals("foo.TemporizeLiterals", shared.getClassName());
+
+        // used by three classes, one of them twice
+        Assert.assertTrue(shared.report().contains("saving " + 2 * "<div class=\"row\">".length() + " bytes of constants"));
+    }
+
+    @Test
+    public void skipBlobLiterals() throws IOException {
+        SharedLiterals shared = SharedLiterals.select("foo", Arrays.asList(
+                build("<div class=\"row\">{$a}"),
+                build("<div class=\"row\">{$b}")), 10);
+
+        Assert.assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    public void commonPackage() {
+        Assert.assertEquals("foo.bar", SharedLiterals.getCommonPackage(Arrays.asList("foo.bar.a", "foo.bar", "foo.bar.b.c")));
+        Assert.assertEquals("net.h34t.temporize", SharedLiterals.getCommonPackage(Arrays.asList("foo", "bar")));
+    }
+}
@@ -0,0 +1,57 @@
+package net.h34t.temporize;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.stream.Collectors;
+
+public class WhitespaceCompactorTest {
+
+    private static String compact(String source) throws IOException {
+        return new WhitespaceCompactor().compact(Parser.FULL.parse(source)).stream()
+                .map(token -> token.contents)
+                .collect(Collectors.joining());
+    }
+
+    @Test
+    public void collapseIndentation() throws IOException {
+        Assert.assertEquals("<ul>\n<li>a b</li>\n</ul>",
+                compact("<ul>\n    <li>a   b</li>\n  \t\n</ul>"));
+    }
+
+    @Test
+    public void keepSingleWhitespace() throws IOException {
+        Assert.assertEquals("<b>a</b>\t<i>b</i>", compact("<b>a</b>\t<i>b</i>"));
+    }
+
+    @Test
+    public void keepTags() throws IOException {
+        Assert.assertEquals("<div   class=\"a  b\"  title='c >  d'>\n<p>",
+                compact("<div   class=\"a  b\"  title='c >  d'>\n   <p>"));
+    }
+
+    @Test
+    public void keepRawElements() throws IOException {
+        Assert.assertEquals("<pre>\n  a\n    b</pre>\n<TEXTAREA rows=2>  x  </TEXTAREA>\n"
+                        + "<script>\n  var a =  1;\n</script> <p>",
+                compact("<pre>\n  a\n    b</pre>\n   <TEXTAREA rows=2>  x  </TEXTAREA>\n   "
+                        + "<script>\n  var a =  1;\n</script>   <p>"));
+    }
+
+    @Test
+    public void keepComments() throws IOException {
+        Assert.assertEquals("<!--   it's  -->\n<p>", compact("<!--   it's  -->\n    <p>"));
+    }
+
+    @Test
+    public void keepSkipSections() throws IOException {
+        Assert.assertEquals("<p>\n{$a}    {$b}\n<p>", compact("<p>\n  {skip}{$a}    {$b}{/skip}\n  <p>"));
+    }
+
+    @Test
+    public void trackMarkupAcrossTokens() throws IOException {
+        Assert.assertEquals("<pre class=\"{$css}\">  {$a}  </pre>\n<p>{$b} c</p>",
+                compact("<pre class=\"{$css}\">  {$a}  </pre>\n    <p>{$b}   c</p>"));
+    }
+}
@@ -2,6 +2,7 @@ package net.h34t.temporize.integration;
 
 import net.h34t.temporize.ASTBuilder;
 import net.h34t.temporize.Temporize;
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -9,14 +10,17 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TemporizeIntegrationTest {
 
@@ -124,4 +128,192 @@ public class TemporizeIntegrationTest {
 
         Assert.assertTrue("Compilation failed", result);
     }
+
+    @Test
+    public void test_incremental() throws IOException {
+        File inDir = folder.newFolder("in");
+        FileUtils.copyDirectory(new File("src/test/resources/it/test-good"), inDir);
+        Path outDirectory = folder.newFolder("out").toPath();
+
+        Path test = outDirectory.resolve("foo/bar/Test.java");
+        Path inner = outDirectory.resolve("foo/bar/baz/Inner.java");
+
+        Temporize temporize = new Temporize().setIncremental(true);
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.setLastModifiedTime(test, past);
+        Files.setLastModifiedTime(inner, past);
+
+        // nothing changed, nothing is written
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertEquals(past, Files.getLastModifiedTime(inner));
+
+        // a different modifier changes every generated file
+        temporize.exec(inDir.toString(), outDirectory.toString(), "net.h34t.it.Modifier");
+        Assert.assertNotEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertNotEquals(past, Files.getLastModifiedTime(inner));
+
+        Files.setLastModifiedTime(test, past);
+        Files.setLastModifiedTime(inner, past);
+
+        // only the changed template is written
+        Path innerSource = inDir.toPath().resolve("foo/bar/baz/Inner.temporize.html");
+        Files.write(innerSource, "{$hello} {$world}".getBytes(StandardCharsets.UTF_8));
+        temporize.exec(inDir.toString(), outDirectory.toString(), "net.h34t.it.Modifier");
+        Assert.assertEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertNotEquals(past, Files.getLastModifiedTime(inner));
+        Assert.assertTrue(new String(Files.readAllBytes(inner), StandardCharsets.UTF_8).contains("world"));
+
+        // outputs of removed templates are deleted
+        Files.delete(innerSource);
+        temporize.exec(inDir.toString(), outDirectory.toString(), "net.h34t.it.Modifier");
+        Assert.assertTrue(Files.exists(test));
+        Assert.assertFalse(Files.exists(inner));
+    }
+
+    @Test
+    public void test_write_changed_files_only() throws IOException {
+        File inDir = folder.newFolder("in");
+        FileUtils.copyDirectory(new File("src/test/resources/it/test-good"), inDir);
+        Path outDirectory = folder.newFolder("out").toPath();
+
+        Path test = outDirectory.resolve("foo/bar/Test.java");
+        Path inner = outDirectory.resolve("foo/bar/baz/Inner.java");
+        Path foreign = outDirectory.resolve("foo/bar/Foreign.java");
+
+        Temporize temporize = new Temporize();
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Files.write(foreign, "class Foreign {}".getBytes(StandardCharsets.UTF_8));
+
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.setLastModifiedTime(test, past);
+        Files.setLastModifiedTime(inner, past);
+
+        // all templates are compiled again, but the unchanged output isn't written
+        Path innerSource = inDir.toPath().resolve("foo/bar/baz/Inner.temporize.html");
+        Files.write(innerSource, "{$hello} {$world}".getBytes(StandardCharsets.UTF_8));
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertNotEquals(past, Files.getLastModifiedTime(inner));
+
+        // only outputs of removed templates are deleted
+        Files.delete(innerSource);
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertFalse(Files.exists(inner));
+        Assert.assertTrue(Files.exists(foreign));
+    }
+
+    @Test
+    public void test_manifest() throws IOException {
+        File inDir = folder.newFolder("in");
+        FileUtils.copyDirectory(new File("src/test/resources/it/test-good"), inDir);
+        Path outDirectory = folder.newFolder("out").toPath();
+
+        Path manifest = outDirectory.resolve(".temporize-manifest");
+        Path test = outDirectory.resolve("foo/bar/Test.java");
+        Path inner = outDirectory.resolve("foo/bar/baz/Inner.java");
+
+        Temporize temporize = new Temporize().setIncremental(true);
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        Assert.assertTrue(lines.stream().anyMatch(line -> line.startsWith("foo/bar/Test.java\tfoo/bar/Test.temporize.html\t")));
+        Assert.assertTrue(lines.stream().anyMatch(line -> line.startsWith("net/h34t/temporize/TemporizeTemplate.java\t")));
+
+        // a modified output is generated again, even though its template didn't change
+        Files.write(test, "modified".getBytes(StandardCharsets.UTF_8));
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertTrue(new String(Files.readAllBytes(test), StandardCharsets.UTF_8).startsWith("/* $TEMPORIZE"));
+
+        // files listed in the manifest are removed with their template, without looking at the files
+        Files.delete(inDir.toPath().resolve("foo/bar/baz/Inner.temporize.html"));
+        Files.write(inner, "not generated by temporize anymore".getBytes(StandardCharsets.UTF_8));
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertFalse(Files.exists(inner));
+        Assert.assertTrue(Files.exists(test));
+        Assert.assertFalse(Files.readAllLines(manifest, StandardCharsets.UTF_8).stream()
+                .anyMatch(line -> line.startsWith("foo/bar/baz/Inner.java")));
+
+        // without a manifest the headers are used
+        Files.delete(manifest);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        Files.setLastModifiedTime(test, past);
+        temporize.exec(inDir.toString(), outDirectory.toString(), null);
+        Assert.assertEquals(past, Files.getLastModifiedTime(test));
+        Assert.assertTrue(Files.exists(manifest));
+    }
+
+    @Test
+    public void test_staging() throws IOException {
+        String inDir = "src/test/resources/it/test-good";
+        Path direct = folder.newFolder("direct").toPath();
+        Path staged = folder.getRoot().toPath().resolve("staged");
+
+        new Temporize().exec(inDir, direct.toString(), "net.h34t.it.Modifier");
+        new Temporize().setStaging(true).setThreads(2).exec(inDir, staged.toString(), "net.h34t.it.Modifier");
+
+        for (String file : new String[]{"foo/bar/Test.java", "foo/bar/baz/Inner.java", "net/h34t/temporize/TemporizeTemplate.java"}) {
+            Assert.assertArrayEquals(
+                    Files.readAllBytes(direct.resolve(file)),
+                    Files.readAllBytes(staged.resolve(file)));
+        }
+
+        // nothing is left next to the output directory
+        Assert.assertEquals(2, countFiles(folder.getRoot().toPath()));
+
+        // failed builds publish nothing
+        Path failed = folder.getRoot().toPath().resolve("failed");
+        try {
+            new Temporize().setStaging(true).exec("src/test/resources/it/test-bad-missing-if", failed.toString(), null);
+            Assert.fail("This should throw a MismatchedBranchException");
+
+        } catch (ASTBuilder.MismatchedBranchException ignored) {
+        }
+
+        Assert.assertFalse(Files.exists(failed));
+        Assert.assertEquals(2, countFiles(folder.getRoot().toPath()));
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void test_parallel() throws IOException {
+        String inDir = "src/test/resources/it/test-good";
+        Path sequential = folder.newFolder("sequential").toPath();
+        Path parallel = folder.newFolder("parallel").toPath();
+
+        new Temporize().exec(inDir, sequential.toString(), "net.h34t.it.Modifier");
+        new Temporize().setThreads(4).exec(inDir, parallel.toString(), "net.h34t.it.Modifier");
+
+        for (String file : new String[]{"foo/bar/Test.java", "foo/bar/baz/Inner.java"}) {
+            Assert.assertArrayEquals(
+                    Files.readAllBytes(sequential.resolve(file)),
+                    Files.readAllBytes(parallel.resolve(file)));
+        }
+    }
+
+    @Test
+    public void test_parallel_reports_first_failure() throws IOException {
+        Path inDir = folder.newFolder("in").toPath();
+        Files.createDirectories(inDir.resolve("a"));
+        Files.createDirectories(inDir.resolve("b"));
+        Files.write(inDir.resolve("a/First.temporize.html"), "{if $foo}".getBytes(StandardCharsets.UTF_8));
+        Files.write(inDir.resolve("b/Second.temporize.html"), "{for $foo}".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                new Temporize().setThreads(2).exec(inDir.toString(), folder.getRoot().toPath().resolve("out").toString(), null);
+                Assert.fail("This should throw a MismatchedBranchException");
+
+            } catch (ASTBuilder.MismatchedBranchException ignored) {
+            }
+        }
+    }
 }
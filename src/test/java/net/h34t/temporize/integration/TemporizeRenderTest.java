@@ -0,0 +1,487 @@
+package net.h34t.temporize.integration;
+
+import net.h34t.temporize.Compiler;
+import net.h34t.temporize.Temporize;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles and loads the generated classes of the render test templates and checks the output of all render paths,
+ * once with the default settings, once with a tiny method size limit that splits every render method and a tiny
+ * literal blob threshold that moves most literals into the resource, once without optimization and once with the
+ * literals shared between templates.
+ */
+@RunWith(Parameterized.class)
+public class TemporizeRenderTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String EXPECTED = "<!DOCTYPE html>\n" +
+            "<html>\n" +
+            "<head><title>&lt;Hello &amp; World&gt;</title></head>\n" +
+            "<body>\n" +
+            "\n" +
+            "<h1>NEWS</h1>\n" +
+            "<p>Intro: \u00c4\u00d6\u00dc \u20ac</p>\n" +
+            "<ul>\n" +
+            "<li class=\"a\">x&lt;y</li>\n" +
+            "<li class=\"b\">z</li>\n" +
+            "</ul>\n" +
+            "<div class=\"widget\">w</div>\n" +
+            "{$notAVariable}\n" +
+            "</body>\n" +
+            "</html>";
+
+    private static final String EXPECTED_EMPTY = "<!DOCTYPE html>\n" +
+            "<html>\n" +
+            "<head><title></title></head>\n" +
+            "<body>\n" +
+            "\n" +
+            "<h1></h1>\n" +
+            "\n" +
+            "<p>none</p>\n" +
+            "\n" +
+            "{$notAVariable}\n" +
+            "</body>\n" +
+            "</html>";
+
+    private static final Map<String, ClassLoader> LOADERS = new HashMap<>();
+
+    @Parameterized.Parameter
+    public int methodSizeLimit;
+
+    @Parameterized.Parameter(1)
+    public int literalBlobThreshold;
+
+    @Parameterized.Parameter(2)
+    public boolean optimize;
+
+    @Parameterized.Parameter(3)
+    public boolean sharedLiterals;
+
+    private ClassLoader loader;
+
+    @Parameterized.Parameters(name = "methodSizeLimit={0}, literalBlobThreshold={1}, optimize={2}, sharedLiterals={3}")
+    public static Collection<Object[]> settings() {
+        return Arrays.asList(new Object[][]{
+                {Compiler.DEFAULT_METHOD_SIZE_LIMIT, Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD, true, false},
+                {40, 16, true, false},
+                {Compiler.DEFAULT_METHOD_SIZE_LIMIT, Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD, false, false},
+                {Compiler.DEFAULT_METHOD_SIZE_LIMIT, Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD, true, true}});
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        String key = methodSizeLimit + "-" + literalBlobThreshold + "-" + optimize + "-" + sharedLiterals;
+        loader = LOADERS.get(key);
+
+        if (loader == null) {
+            loader = generate(key);
+            LOADERS.put(key, loader);
+        }
+    }
+
+    ClassLoader generate(String key) throws Exception {
+        Path outDirectory = folder.newFolder("out" + key).toPath();
+
+        new Temporize()
+                .setMethodSizeLimit(methodSizeLimit)
+                .setLiteralBlobThreshold(literalBlobThreshold)
+                .setOptimize(optimize)
+                .setSharedLiterals(sharedLiterals)
+                .exec("src/test/resources/it/test-render", outDirectory.toString(), "net.h34t.it.Modifier");
+
+        PathMatcher pm = outDirectory.getFileSystem().getPathMatcher("glob:**/*.java");
+        List<File> files = Files.find(outDirectory, 32, (f, a) -> pm.matches(f))
+                .map(Path::toFile)
+                .collect(Collectors.toList());
+
+        Assert.assertTrue("Compilation failed", TestCompiler.test(files));
+
+        return new URLClassLoader(new URL[]{outDirectory.toUri().toURL()}, TemporizeRenderTest.class.getClassLoader());
+    }
+
+    Object create(String className) throws Exception {
+        return loader.loadClass(className).getConstructor().newInstance();
+    }
+
+    static Object set(Object template, String setter, Class<?> type, Object value) throws Exception {
+        return template.getClass().getMethod(setter, type).invoke(template, value);
+    }
+
+    Object page() throws Exception {
+        Object page = create("render.Page");
+        set(page, "setTitle", String.class, "<Hello & World>");
+        set(page, "setHeadline", String.class, "news");
+        set(page, "setShowIntro", boolean.class, true);
+        set(page, "setIntro", String.class, "\u00c4\u00d6\u00dc \u20ac");
+
+        set(page, "setItems", List.class, Arrays.asList(item("a", "x<y"), item("b", "z")));
+
+        Object widget = create("render.Widget");
+        set(widget, "setName", String.class, "w");
+        set(page, "setWidget", widget.getClass(), widget);
+
+        return page;
+    }
+
+    Object item(String cls, String text) throws Exception {
+        return fill(create("render.Page$Items"), new String[]{cls, text});
+    }
+
+    static Object fill(Object item, String[] values) throws Exception {
+        set(item, "setCls", String.class, values[0]);
+        set(item, "setText", String.class, values[1]);
+        return item;
+    }
+
+    static String write(Object template) throws Exception {
+        Writer writer = new StringWriter();
+        template.getClass().getMethod("write", Writer.class).invoke(template, writer);
+        return writer.toString();
+    }
+
+    static byte[] write(Object template, Charset charset) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Method write = template.getClass().getMethod("write", OutputStream.class, Charset.class);
+
+        // twice, so the cached literals are used as well
+        write.invoke(template, os, charset);
+        os.reset();
+        write.invoke(template, os, charset);
+
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        Assert.assertEquals(EXPECTED, page().toString());
+        Assert.assertEquals(EXPECTED_EMPTY, create("render.Page").toString());
+    }
+
+    @Test
+    public void testWriter() throws Exception {
+        Assert.assertEquals(EXPECTED, write(page()));
+        Assert.assertEquals(EXPECTED_EMPTY, write(create("render.Page")));
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE)) {
+            Assert.assertArrayEquals(charset.name(), EXPECTED.getBytes(charset), write(page(), charset));
+            Assert.assertArrayEquals(charset.name(), EXPECTED_EMPTY.getBytes(charset), write(create("render.Page"), charset));
+        }
+
+        Object page = page();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        page.getClass().getMethod("write", OutputStream.class).invoke(page, os);
+        Assert.assertArrayEquals(EXPECTED.getBytes(StandardCharsets.UTF_8), os.toByteArray());
+    }
+
+    @Test
+    public void testEmptyBlock() throws Exception {
+        Object page = page();
+        set(page, "setItems", List.class, Collections.emptyList());
+
+        Assert.assertTrue(page.toString().contains("<p>none</p>"));
+        Assert.assertArrayEquals(page.toString().getBytes(StandardCharsets.UTF_8), write(page, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAppendTo() throws Exception {
+        Object page = page();
+
+        StringBuilder sb = new StringBuilder("prefix:");
+        page.getClass().getMethod("appendTo", StringBuilder.class).invoke(page, sb);
+        Assert.assertEquals("prefix:" + EXPECTED, sb.toString());
+
+        CharBuffer buffer = CharBuffer.allocate(EXPECTED.length());
+        page.getClass().getMethod("appendTo", Appendable.class).invoke(page, buffer);
+        buffer.flip();
+        Assert.assertEquals(EXPECTED, buffer.toString());
+
+        StringWriter writer = new StringWriter();
+        page.getClass().getMethod("appendTo", Appendable.class).invoke(page, writer);
+        Assert.assertEquals(EXPECTED, writer.toString());
+    }
+
+    @Test
+    public void testTemplateSetter() throws Exception {
+        Object widget = create("render.Widget");
+        set(widget, "setName", String.class, "<b>");
+
+        Object page = page();
+        set(page, "setIntro", loader.loadClass("net.h34t.temporize.TemporizeTemplate"), widget);
+
+        Assert.assertTrue(page.toString().contains("<p>Intro: <div class=\"widget\"><b></div></p>"));
+
+        // nested templates are rendered in place when the page is written
+        set(widget, "setName", long.class, 42L);
+        String expected = EXPECTED.replace("<p>Intro: \u00c4\u00d6\u00dc \u20ac</p>", "<p>Intro: <div class=\"widget\">42</div></p>");
+        Assert.assertEquals(expected, page.toString());
+        Assert.assertEquals(expected, write(page));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), write(page, StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_16BE), write(page, StandardCharsets.UTF_16BE));
+        Assert.assertEquals(expected.length(), page.getClass().getMethod("measure").invoke(page));
+
+        // modifiers get the rendered template
+        set(page, "setTitle", loader.loadClass("net.h34t.temporize.TemporizeTemplate"), widget);
+        Assert.assertTrue(page.toString().contains("<title>&lt;div class=&quot;widget&quot;&gt;42&lt;/div&gt;</title>"));
+    }
+
+    @Test
+    public void testTypedValues() throws Exception {
+        Object widget = create("render.Widget");
+        Object[][] values = {
+                {long.class, 0L, "0"},
+                {long.class, -42L, "-42"},
+                {long.class, Long.MIN_VALUE, String.valueOf(Long.MIN_VALUE)},
+                {long.class, Long.MAX_VALUE, String.valueOf(Long.MAX_VALUE)},
+                {double.class, 1.5, "1.5"},
+                {CharSequence.class, new StringBuilder("\u00c4 & \u20ac"), "\u00c4 & \u20ac"},
+                {CharSequence.class, CharBuffer.wrap("buffer"), "buffer"},
+                {CharSequence.class, new StringBuilder(repeat("0123456789", 250)), repeat("0123456789", 250)},
+                {CharSequence.class, CharBuffer.wrap(repeat("\u00e4bc", 1000)), repeat("\u00e4bc", 1000)},
+                {String.class, null, ""}};
+
+        for (Object[] value : values) {
+            String expected = "<div class=\"widget\">" + value[2] + "</div>";
+            set(widget, "setName", (Class<?>) value[0], value[1]);
+
+            Assert.assertEquals(expected, widget.toString());
+            Assert.assertEquals(expected, write(widget));
+            Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), write(widget, StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_16BE), write(widget, StandardCharsets.UTF_16BE));
+            Assert.assertEquals(expected.length(), widget.getClass().getMethod("measure").invoke(widget));
+        }
+
+        // modifiers get the value as a String
+        Object page = page();
+        set(page, "setHeadline", long.class, 7L);
+        set(page, "setShowIntro", boolean.class, false);
+        Assert.assertTrue(page.toString().contains("<h1>7</h1>\n\n<ul>"));
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sb.append(text);
+        return sb.toString();
+    }
+
+    @Test
+    public void testMeasure() throws Exception {
+        Object page = page();
+        Assert.assertEquals(EXPECTED.length(), page.getClass().getMethod("measure").invoke(page));
+
+        Object empty = create("render.Page");
+        Assert.assertEquals(EXPECTED_EMPTY.length(), empty.getClass().getMethod("measure").invoke(empty));
+
+        Method render = loader.loadClass("net.h34t.temporize.TemporizeTemplate")
+                .getMethod("render", loader.loadClass("net.h34t.temporize.TemporizeTemplate"), boolean.class);
+        Assert.assertEquals(EXPECTED, render.invoke(null, page, true));
+    }
+
+    @Test
+    public void testSizeHint() throws Exception {
+        Object page = page();
+        Method sizeHint = page.getClass().getMethod("sizeHint");
+
+        // after a render the hint covers the output
+        Assert.assertEquals(EXPECTED, page.toString());
+        Assert.assertTrue((int) sizeHint.invoke(page) >= EXPECTED.length());
+
+        // and decays slowly after smaller renders
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(EXPECTED_EMPTY, create("render.Page").toString());
+
+        int hint = (int) sizeHint.invoke(page);
+        Assert.assertTrue(hint < EXPECTED.length());
+        Assert.assertTrue(hint >= EXPECTED_EMPTY.length());
+    }
+
+    @Test
+    public void testLiteralBlob() throws Exception {
+        boolean blob = literalBlobThreshold < Compiler.DEFAULT_LITERAL_BLOB_THRESHOLD;
+
+        Assert.assertEquals(blob, loader.getResource("render/Page.literals") != null);
+        Assert.assertEquals(blob, Arrays.stream(loader.loadClass("render.Page").getDeclaredFields())
+                .anyMatch(field -> field.getName().equals("BLOB")));
+
+        // other charsets than UTF-8 are encoded once and copied afterwards
+        Charset charset = Charset.forName("windows-1252");
+        Object page = page();
+        Assert.assertArrayEquals(EXPECTED.getBytes(charset), write(page, charset));
+        Assert.assertArrayEquals(EXPECTED.getBytes(charset), write(page, charset));
+    }
+
+    @Test
+    public void testSharedLiterals() throws Exception {
+        // the widget and the card share their markup
+        Assert.assertEquals(sharedLiterals, loader.getResource("render/TemporizeLiterals.literals") != null);
+
+        Object card = create("render.Card");
+        set(card, "setTitle", String.class, "c");
+        Assert.assertEquals("<div class=\"widget\">c</div>\n<p>A card sharing its markup with the widget</p>", card.toString());
+        Assert.assertArrayEquals(card.toString().getBytes(StandardCharsets.UTF_8), write(card, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStreamingModifiers() throws Exception {
+        // html is applied as a filter unless a String modifier follows it
+        Object chain = create("render.Chain");
+
+        set(chain, "setValue", String.class, "a&<\u20ac\ud83d\ude00>");
+        assertRendered(chain, "A&AMP;&LT;\u20ac\ud83d\ude00&GT; A&amp;&lt;\u20ac\ud83d\ude00&gt; a&amp;amp;&amp;lt;\u20ac\ud83d\ude00&amp;gt;");
+
+        set(chain, "setValue", CharSequence.class, new StringBuilder("\"\ud83d"));
+        assertRendered(chain, "&QUOT;\ud83d &quot;\ud83d &amp;quot;\ud83d");
+
+        set(chain, "setValue", long.class, -12L);
+        assertRendered(chain, "-12 -12 -12");
+
+        Object widget = create("render.Widget");
+        set(widget, "setName", String.class, "a");
+        set(chain, "setValue", loader.loadClass("net.h34t.temporize.TemporizeTemplate"), widget);
+        assertRendered(chain, "&LT;DIV CLASS=&QUOT;WIDGET&QUOT;&GT;A&LT;/DIV&GT; "
+                + "&lt;DIV CLASS=&quot;WIDGET&quot;&gt;A&lt;/DIV&gt; "
+                + "&amp;lt;div class=&amp;quot;widget&amp;quot;&amp;gt;a&amp;lt;/div&amp;gt;");
+    }
+
+    private static void assertRendered(Object template, String expected) throws Exception {
+        Assert.assertEquals(expected, template.toString());
+        Assert.assertEquals(expected, write(template));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), write(template, StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1), write(template, StandardCharsets.ISO_8859_1));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_16BE), write(template, StandardCharsets.UTF_16BE));
+        Assert.assertEquals(expected.length(), template.getClass().getMethod("measure").invoke(template));
+    }
+
+    @Test
+    public void testSilentDeclarations() throws Exception {
+        Object page = page();
+        set(page, "setDebug", boolean.class, true);
+        set(page, "setScripts", List.class, Collections.singletonList(create("render.Page$Scripts")));
+
+        Assert.assertEquals(EXPECTED, page.toString());
+    }
+
+    @Test
+    public void testRowSources() throws Exception {
+        Object page = page();
+        set(page, "setItemsRows", Stream.class, Stream.of(item("a", "x<y"), item("b", "z")));
+        Assert.assertEquals(EXPECTED, write(page));
+
+        // rows of a stream are consumed while writing
+        try {
+            write(page);
+            Assert.fail();
+        } catch (InvocationTargetException e) {
+            Assert.assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+
+        set(page, "setItemsRows", Iterator.class, Collections.emptyIterator());
+        Assert.assertTrue(write(page).contains("<p>none</p>"));
+
+        // a single reused row for every element
+        BiConsumer<Object, String[]> mapper = (row, values) -> {
+            try {
+                fill(row, values);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        page.getClass().getMethod("setItemsRows", Iterable.class, BiConsumer.class)
+                .invoke(page, Arrays.asList(new String[]{"a", "x<y"}, new String[]{"b", "z"}), mapper);
+        Assert.assertEquals(EXPECTED, write(page));
+        Assert.assertEquals(EXPECTED, page.toString());
+    }
+
+    @Test
+    public void testStreamedContent() throws Exception {
+        Class<?> template = loader.loadClass("net.h34t.temporize.TemporizeTemplate");
+
+        Object entries = create("render.Entries");
+        Object layout = create("render.Layout");
+        set(layout, "setContent", template, entries);
+        Assert.assertEquals("<p>empty</p>", layout.toString());
+
+        // the conditional checks the content without consuming its rows
+        List<Object> rows = Arrays.asList(
+                set(create("render.Entries$Rows"), "setText", String.class, "a"),
+                set(create("render.Entries$Rows"), "setText", String.class, "b"));
+        set(entries, "setRowsRows", Iterator.class, rows.iterator());
+        Assert.assertEquals("<main><li>a</li><li>b</li></main>", write(layout));
+
+        set(entries, "setRowsRows", Stream.class, rows.stream());
+        Assert.assertEquals("<main><li>a</li><li>b</li></main>", layout.toString());
+
+        set(entries, "setRowsRows", Iterator.class, Collections.emptyIterator());
+        Assert.assertEquals("<p>empty</p>", layout.toString());
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        Class<?> column = loader.loadClass("net.h34t.temporize.TemporizeTemplate$Column");
+        Method of = column.getMethod("of", CharSequence[].class);
+
+        Object page = page();
+        page.getClass().getMethod("setItemsColumns", int.class, column, column).invoke(page, 2,
+                of.invoke(null, (Object) new String[]{"a", "b"}),
+                of.invoke(null, (Object) new String[]{"x<y", "z"}));
+
+        Assert.assertEquals(EXPECTED, page.toString());
+        Assert.assertEquals(EXPECTED, write(page));
+        Assert.assertArrayEquals(EXPECTED.getBytes(StandardCharsets.UTF_8), write(page, StandardCharsets.UTF_8));
+        Assert.assertEquals(EXPECTED.length(), page.getClass().getMethod("measure").invoke(page));
+
+        // numbers are set without converting them
+        page.getClass().getMethod("setItemsColumns", int.class, column, column).invoke(page, 3,
+                of.invoke(null, (Object) new String[]{"a", "b", "c"}),
+                column.getMethod("of", long[].class).invoke(null, (Object) new long[]{7, -12, Long.MIN_VALUE}));
+        String numbers = "<li class=\"a\">7</li>\n<li class=\"b\">-12</li>\n<li class=\"c\">" + Long.MIN_VALUE + "</li>\n";
+        Assert.assertTrue(page.toString().contains(numbers));
+        Assert.assertArrayEquals(page.toString().getBytes(StandardCharsets.UTF_8), write(page, StandardCharsets.UTF_8));
+
+        page.getClass().getMethod("setItemsColumns", int.class, column, column).invoke(page, 2,
+                of.invoke(null, (Object) new String[]{"a", "b"}),
+                column.getMethod("of", double[].class).invoke(null, (Object) new double[]{1.5, 0.25}));
+        Assert.assertTrue(write(page).contains("<li class=\"a\">1.5</li>\n<li class=\"b\">0.25</li>\n"));
+
+        page.getClass().getMethod("setItemsColumns", int.class, column, column).invoke(page, 0, null, null);
+        Assert.assertTrue(page.toString().contains("<p>none</p>"));
+    }
+}